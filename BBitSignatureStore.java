@@ -0,0 +1,115 @@
+import java.util.*;
+
+// b-bit MinHash signatures (Li & König, 2010): only the lowest b bits (1, 2, 4 or 8)
+// of each min-hash are kept, packed 64 / b per word in one row-major long[] matrix.
+// Agreement between two rows is counted word-at-a-time with XOR and popcount, and
+// any prefix of the t hashes can be compared without copying.
+public class BBitSignatureStore {
+    private final int bits;
+    private final int numHashes;
+    private final int numRows;
+    private final int perWord;
+    private final int wordsPerRow;
+    private final long fieldMask;
+    private final long[] words;
+
+    public BBitSignatureStore(SignatureMatrix signatures, int numHashes, int bits) {
+        if (bits != 1 && bits != 2 && bits != 4 && bits != 8) {
+            throw new IllegalArgumentException("Bits per hash must be 1, 2, 4 or 8: " + bits);
+        }
+        this.bits = bits;
+        this.numHashes = numHashes;
+        this.numRows = signatures.numRows();
+        this.perWord = 64 / bits;
+        this.wordsPerRow = (numHashes + perWord - 1) / perWord;
+        this.fieldMask = (1L << bits) - 1;
+        this.words = new long[numRows * wordsPerRow];
+
+        for (int row = 0; row < numRows; row++) {
+            for (int j = 0; j < numHashes; j++) {
+                words[row * wordsPerRow + j / perWord] |= (signatures.get(row, j) & fieldMask) << ((j % perWord) * bits);
+            }
+        }
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    public int numHashes() {
+        return numHashes;
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    // Bytes used by the packed matrix
+    public long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+
+    // Number of the first `prefix` hashes whose low b bits agree
+    public int matches(int rowA, int rowB, int prefix) {
+        int baseA = rowA * wordsPerRow, baseB = rowB * wordsPerRow;
+        int fullWords = prefix / perWord;
+        int mismatches = 0;
+        for (int w = 0; w < fullWords; w++) {
+            mismatches += Long.bitCount(differingFields(words[baseA + w] ^ words[baseB + w]));
+        }
+        int remainder = prefix % perWord;
+        if (remainder > 0) {
+            long mask = (1L << (remainder * bits)) - 1;
+            mismatches += Long.bitCount(differingFields((words[baseA + fullWords] ^ words[baseB + fullWords]) & mask));
+        }
+        return prefix - mismatches;
+    }
+
+    // Collapse every b-bit field of x to its lowest bit, set iff the field is non-zero
+    private long differingFields(long x) {
+        switch (bits) {
+            case 1:
+                return x;
+            case 2:
+                return (x | (x >>> 1)) & 0x5555555555555555L;
+            case 4:
+                x |= x >>> 1;
+                x |= x >>> 2;
+                return x & 0x1111111111111111L;
+            default:
+                x |= x >>> 1;
+                x |= x >>> 2;
+                x |= x >>> 4;
+                return x & 0x0101010101010101L;
+        }
+    }
+
+    // Bias-corrected Jaccard estimate for sparse data, where a random b-bit match has probability 2^-b
+    public double estimate(int rowA, int rowB, int prefix) {
+        double chance = 1.0 / (1 << bits);
+        double agreement = (double) matches(rowA, rowB, prefix) / prefix;
+        return clamp((agreement - chance) / (1 - chance));
+    }
+
+    // Full b-bit estimator; r1 and r2 are the set sizes divided by the size of the item universe
+    public double estimate(int rowA, int rowB, int prefix, double r1, double r2) {
+        double a1 = chanceTerm(r1), a2 = chanceTerm(r2);
+        double c1 = a1 * r2 / (r1 + r2) + a2 * r1 / (r1 + r2);
+        double c2 = a1 * r1 / (r1 + r2) + a2 * r2 / (r1 + r2);
+        double agreement = (double) matches(rowA, rowB, prefix) / prefix;
+        return clamp((agreement - c1) / (1 - c2));
+    }
+
+    // A_{j,b} = r (1 - r)^(2^b - 1) / (1 - (1 - r)^(2^b))
+    private double chanceTerm(double r) {
+        int values = 1 << bits;
+        if (r <= 0) {
+            return 1.0 / values;
+        }
+        return r * Math.pow(1 - r, values - 1) / (1 - Math.pow(1 - r, values));
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0.0, Math.min(1.0, value));
+    }
+}
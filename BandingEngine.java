@@ -0,0 +1,167 @@
+import java.util.*;
+import java.util.stream.*;
+
+// LSH banding without per-user allocation: each band's r values are hashed straight
+// out of the signature into a 64-bit bucket key, users are chained per bucket in an
+// open-addressing table of primitive arrays, and candidate pairs are encoded as
+// (rowA << 32 | rowB) longs. Bands are processed in parallel and their sorted,
+// de-duplicated pair arrays are merged. Distinct band contents sharing a 64-bit key
+// would merge two buckets; at 2^-64 per pair this is ignored. Buckets over a
+// BucketPolicy's cap are split, sampled or verified by the policy instead.
+public class BandingEngine {
+    private static final long BAND_SEED = 0x9e3779b97f4a7c15L;
+    private static final int MAX_PAIRS = Integer.MAX_VALUE - 8;
+
+    private BandingEngine() {
+    }
+
+    // 64-bit key for signature[from, from + r)
+    public static long bandKey(int[] signature, int from, int r) {
+        long h = BAND_SEED;
+        for (int k = from; k < from + r; k++) {
+            h = Long.rotateLeft((h ^ (signature[k] & 0xFFFFFFFFL)) * 0xc2b2ae3d27d4eb4fL, 31);
+        }
+        return HashFamily.mix64(h ^ r);
+    }
+
+    public static long pairKey(int rowA, int rowB) {
+        return rowA < rowB
+                ? ((long) rowA << 32) | rowB
+                : ((long) rowB << 32) | rowA;
+    }
+
+    public static int left(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    public static int right(long pair) {
+        return (int) pair;
+    }
+
+    // Sorted, de-duplicated candidate pairs over all b bands of r rows
+    public static long[] candidatePairs(SignatureMatrix signatures, int b, int r) {
+        return candidatePairs(signatures, b, r, BucketPolicy.none());
+    }
+
+    // As above, with buckets of more than policy.maxBucket() rows handed to the policy
+    public static long[] candidatePairs(SignatureMatrix signatures, int b, int r, BucketPolicy policy) {
+        try (Metrics.Scope phase = Metrics.phase("band")) {
+            return IntStream.range(0, b)
+                    .parallel()
+                    .mapToObj(band -> bandCandidates(signatures, band * r, r, policy))
+                    .reduce(new long[0], BandingEngine::mergeSorted);
+        }
+    }
+
+    // Sorted pairs of rows that share a bucket in the band starting at hash `from`
+    static long[] bandCandidates(SignatureMatrix signatures, int from, int r, BucketPolicy policy) {
+        int n = signatures.numRows();
+        int[] values = signatures.values();
+        int capacity = Integer.highestOneBit(Math.max(4, 2 * n - 1)) << 1;
+        int mask = capacity - 1;
+        long[] keys = new long[capacity];
+        int[] heads = new int[capacity];
+        int[] sizes = new int[capacity];
+        int[] next = new int[n];
+        Arrays.fill(heads, -1);
+
+        for (int row = 0; row < n; row++) {
+            long key = bandKey(values, signatures.offset(row) + from, r);
+            int slot = (int) key & mask;
+            while (heads[slot] != -1 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            next[row] = heads[slot];
+            heads[slot] = row;
+            sizes[slot]++;
+        }
+
+        // Oversized buckets go to the policy, the rest emit all their pairs
+        long pairCount = 0;
+        int largest = 0;
+        LongList policyPairs = new LongList(16);
+        for (int slot = 0; slot < capacity; slot++) {
+            largest = Math.max(largest, sizes[slot]);
+            if (Metrics.ENABLED && sizes[slot] > 0) {
+                Metrics.bucket(from / r, keys[slot], sizes[slot], heads[slot]);
+            }
+            if (!policy.oversized(sizes[slot])) {
+                pairCount += (long) sizes[slot] * (sizes[slot] - 1) / 2;
+                continue;
+            }
+            int[] members = new int[sizes[slot]];
+            int m = 0;
+            for (int a = heads[slot]; a != -1; a = next[a]) {
+                members[m++] = a;
+            }
+            policy.emit(members, signatures, from, r, keys[slot], policyPairs);
+        }
+        pairCount += policyPairs.size();
+        Metrics.bandCandidates(from / r, pairCount);
+        if (pairCount > MAX_PAIRS) {
+            throw tooManyPairs("Band starting at hash " + from + " produces " + pairCount
+                    + " candidate pairs (largest bucket: " + largest + " rows)");
+        }
+
+        long[] pairs = new long[(int) pairCount];
+        int count = 0;
+        for (int i = 0; i < policyPairs.size(); i++) {
+            pairs[count++] = policyPairs.get(i);
+        }
+        for (int slot = 0; slot < capacity; slot++) {
+            if (sizes[slot] < 2 || policy.oversized(sizes[slot])) {
+                continue;
+            }
+            for (int a = heads[slot]; a != -1; a = next[a]) {
+                for (int c = next[a]; c != -1; c = next[c]) {
+                    pairs[count++] = pairKey(a, c);
+                }
+            }
+        }
+        Arrays.sort(pairs);
+        return pairs;
+    }
+
+    // Union of two sorted, duplicate-free arrays
+    static long[] mergeSorted(long[] a, long[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        // Shared pairs may bring an oversized sum back under the limit, so only running out fails
+        long[] merged = new long[(int) Math.min(MAX_PAIRS, (long) a.length + b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (n == merged.length) {
+                throw tooManyPairs("Bands produce more than " + MAX_PAIRS + " distinct candidate pairs");
+            }
+            if (a[i] < b[j]) {
+                merged[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                merged[n++] = b[j++];
+            } else {
+                merged[n++] = a[i++];
+                j++;
+            }
+        }
+        if ((long) n + (a.length - i) + (b.length - j) > merged.length) {
+            throw tooManyPairs("Bands produce more than " + MAX_PAIRS + " distinct candidate pairs");
+        }
+        while (i < a.length) {
+            merged[n++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[n++] = b[j++];
+        }
+        return n == merged.length ? merged : Arrays.copyOf(merged, n);
+    }
+
+    // Candidate pairs live in one long[]; the way out is to cap what a bucket may emit
+    private static IllegalStateException tooManyPairs(String what) {
+        return new IllegalStateException(what + ", more than one array holds. Cap oversized buckets with"
+                + " --max-bucket (a BucketPolicy), or use more rows per band");
+    }
+}
@@ -0,0 +1,212 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+// What BandingEngine does with a bucket of more than maxBucket rows, which would
+// otherwise emit m(m - 1) / 2 pairs. Popular band values (users who rated the same
+// few blockbusters) make such buckets, and a few of them can dominate the run.
+//
+//   NONE    emit every pair, as before
+//   SPLIT   re-bucket the rows by the signature values after the band, one extra row
+//           at a time, until every part fits; pairs that the extra rows separate are
+//           dropped. A part still too large after every row is sampled
+//   SAMPLE  pair each row with its next maxBucket - 1 rows in a seeded shuffle, so
+//           the bucket emits at most m(maxBucket - 1) pairs
+//   VERIFY  compare the bucket's rows over the whole signature in cache-sized tiles
+//           and emit only pairs whose agreement reaches the threshold; output is bounded
+//           by the truly similar pairs, but compute stays quadratic in the bucket size
+//
+// Only SAMPLE (and SPLIT, which falls back to it) bounds the work a bucket costs.
+// VERIFY still compares every pair of an oversized bucket, so it trims the output
+// without bounding worst-case candidate generation; the tools default to SAMPLE.
+//
+// Every bucket over the cap counts as oversized, and the pairs it did not emit count
+// as suppressed (some may still come from other bands). A policy accumulates these
+// over all bands it is used for.
+public final class BucketPolicy {
+    public enum Mode { NONE, SPLIT, SAMPLE, VERIFY }
+
+    private static final int TILE_ROWS = 64;
+
+    private final Mode mode;
+    private final int maxBucket;
+    private final double threshold;
+    private final long seed;
+    private final AtomicLong oversizedBuckets = new AtomicLong();
+    private final AtomicLong suppressedPairs = new AtomicLong();
+
+    private BucketPolicy(Mode mode, int maxBucket, double threshold, long seed) {
+        if (mode != Mode.NONE && maxBucket < 2) {
+            throw new IllegalArgumentException("Maximum bucket size must be at least 2: " + maxBucket);
+        }
+        if (mode == Mode.VERIFY && (threshold <= 0 || threshold > 1)) {
+            throw new IllegalArgumentException("Threshold must be in (0, 1]: " + threshold);
+        }
+        this.mode = mode;
+        this.maxBucket = mode == Mode.NONE ? Integer.MAX_VALUE : maxBucket;
+        this.threshold = threshold;
+        this.seed = seed;
+    }
+
+    public static BucketPolicy none() {
+        return new BucketPolicy(Mode.NONE, Integer.MAX_VALUE, 0, 0);
+    }
+
+    public static BucketPolicy split(int maxBucket, long seed) {
+        return new BucketPolicy(Mode.SPLIT, maxBucket, 0, seed);
+    }
+
+    public static BucketPolicy sample(int maxBucket, long seed) {
+        return new BucketPolicy(Mode.SAMPLE, maxBucket, 0, seed);
+    }
+
+    public static BucketPolicy verify(int maxBucket, double threshold) {
+        return new BucketPolicy(Mode.VERIFY, maxBucket, threshold, 0);
+    }
+
+    // "none", "split", "sample" or "verify"; threshold is only used by verify
+    public static BucketPolicy of(String mode, int maxBucket, double threshold, long seed) {
+        switch (mode) {
+            case "none":
+                return none();
+            case "split":
+                return split(maxBucket, seed);
+            case "sample":
+                return sample(maxBucket, seed);
+            case "verify":
+                return verify(maxBucket, threshold);
+            default:
+                throw new IllegalArgumentException("Unknown bucket policy: " + mode);
+        }
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public int maxBucket() {
+        return maxBucket;
+    }
+
+    public long oversizedBuckets() {
+        return oversizedBuckets.get();
+    }
+
+    public long suppressedPairs() {
+        return suppressedPairs.get();
+    }
+
+    boolean oversized(int size) {
+        return size > maxBucket;
+    }
+
+    // Pairs of one oversized bucket (distinct rows) of the band starting at hash `from`
+    void emit(int[] members, SignatureMatrix signatures, int from, int r, long key, LongList out) {
+        int before = out.size();
+        switch (mode) {
+            case SPLIT:
+                split(members, signatures, (from + r) % signatures.numHashes(), signatures.numHashes() - r, key, out);
+                break;
+            case SAMPLE:
+                sample(members, key, out);
+                break;
+            case VERIFY:
+                verify(members, signatures, out);
+                break;
+            default:
+                allPairs(members, out);
+        }
+        long total = (long) members.length * (members.length - 1) / 2;
+        oversizedBuckets.incrementAndGet();
+        suppressedPairs.addAndGet(total - (out.size() - before));
+        Metrics.count("oversized_buckets", 1);
+        Metrics.count("suppressed_pairs", total - (out.size() - before));
+    }
+
+    // Group by the value at `position`, then split each group that is still too large on the next one
+    private void split(int[] members, SignatureMatrix signatures, int position, int rowsLeft, long key, LongList out) {
+        if (members.length <= maxBucket) {
+            allPairs(members, out);
+            return;
+        }
+        if (rowsLeft == 0) {
+            sample(members, key, out);
+            return;
+        }
+        long[] byValue = new long[members.length];
+        for (int i = 0; i < members.length; i++) {
+            byValue[i] = ((long) signatures.get(members[i], position) << 32) | members[i];
+        }
+        Arrays.sort(byValue);
+        int next = (position + 1) % signatures.numHashes();
+        int start = 0;
+        for (int i = 1; i <= byValue.length; i++) {
+            if (i == byValue.length || (byValue[i] >>> 32) != (byValue[start] >>> 32)) {
+                if (i - start > 1) {
+                    int[] group = new int[i - start];
+                    for (int g = 0; g < group.length; g++) {
+                        group[g] = (int) byValue[start + g];
+                    }
+                    split(group, signatures, next, rowsLeft - 1, key, out);
+                }
+                start = i;
+            }
+        }
+    }
+
+    // Each row with the next maxBucket - 1 rows of a shuffle seeded by the bucket
+    private void sample(int[] members, long key, LongList out) {
+        int[] shuffled = members.clone();
+        Random random = new Random(seed ^ key);
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+        for (int i = 0; i < shuffled.length; i++) {
+            for (int j = i + 1; j < Math.min(shuffled.length, i + maxBucket); j++) {
+                out.add(BandingEngine.pairKey(shuffled[i], shuffled[j]));
+            }
+        }
+    }
+
+    // Pairs whose agreement over the whole signature reaches the threshold, tile by tile so
+    // both tiles' signatures stay in cache; a comparison stops once the threshold is out of reach
+    private void verify(int[] members, SignatureMatrix signatures, LongList out) {
+        int t = signatures.numHashes();
+        int[] values = signatures.values();
+        int needed = (int) Math.ceil(threshold * t - 1e-9);
+        for (int tileA = 0; tileA < members.length; tileA += TILE_ROWS) {
+            for (int tileB = tileA; tileB < members.length; tileB += TILE_ROWS) {
+                for (int i = tileA; i < Math.min(members.length, tileA + TILE_ROWS); i++) {
+                    int sigA = signatures.offset(members[i]);
+                    for (int j = Math.max(i + 1, tileB); j < Math.min(members.length, tileB + TILE_ROWS); j++) {
+                        int sigB = signatures.offset(members[j]);
+                        int matches = 0;
+                        for (int h = 0; h < t && matches + t - h >= needed; h++) {
+                            if (values[sigA + h] == values[sigB + h]) {
+                                matches++;
+                            }
+                        }
+                        if (matches >= needed) {
+                            out.add(BandingEngine.pairKey(members[i], members[j]));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void allPairs(int[] members, LongList out) {
+        for (int i = 0; i < members.length; i++) {
+            for (int j = i + 1; j < members.length; j++) {
+                out.add(BandingEngine.pairKey(members[i], members[j]));
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.NONE ? "none" : mode.name().toLowerCase(Locale.ROOT) + " buckets over " + maxBucket;
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+// Near-duplicate detection over a whole directory tree: the 3-gram -> MinHash -> LSH
+// flow of LSHSimilarity, run as a pipeline instead of over a fixed list of documents.
+// Files are listed, read, shingled into sketches and inserted into the band tables by
+// separate stages joined by bounded queues, so a slow stage throttles the ones feeding
+// it. Reads block on I/O, so they run on virtual threads where the JDK has them. The
+// bytes read but not yet shingled are capped at bufferBytes: a reader waits for room
+// before reading, and files over maxFileBytes are skipped. Every new document is
+// checked against the documents already in its buckets, and each candidate pair is
+// written out as soon as its estimated Jaccard reaches the threshold.
+//
+// The band stage keeps every indexed document's signature (4 * r * b bytes, in
+// fixed-size chunks) and path, so its memory grows linearly with the documents seen;
+// document ids are ints, and the stage fails once MAX_DOCUMENTS have been indexed.
+public class DuplicatePipeline {
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long DEFAULT_SEED = 42L;
+    private static final int CHUNK_DOCUMENTS = 1 << 12;
+    private static final int SEEN_SHINGLES = 1 << 16;
+    private static final int MAX_DOCUMENTS = Integer.MAX_VALUE - 8;
+
+    private final int k;
+    private final int r;
+    private final int b;
+    private final double threshold;
+    private final long maxFileBytes;
+    private final HashFamily family;
+    private final PrintStream out;
+    private final int bufferKiB;
+    private final Semaphore buffered; // Free KiB of the read buffer
+    int maxDocuments = MAX_DOCUMENTS; // Lowered by tests
+
+    private final BlockingQueue<Document> toRead = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Document> toShingle = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Document> toBand = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final AtomicLong documentsDone = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong pairsReported = new AtomicLong();
+
+    public DuplicatePipeline(int k, int r, int b, double threshold, long seed, long maxFileBytes, long bufferBytes,
+                             PrintStream out) {
+        if (r <= 0 || b <= 0 || (long) r * b * CHUNK_DOCUMENTS > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Need positive r and b with r * b <= "
+                    + (Integer.MAX_VALUE - 8) / CHUNK_DOCUMENTS + ", got r=" + r + ", b=" + b);
+        }
+        if (maxFileBytes <= 0 || maxFileBytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Maximum file size must be in [1, 2^31 - 9]: " + maxFileBytes);
+        }
+        if (bufferBytes < maxFileBytes || kibibytes(bufferBytes) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Read buffer of " + bufferBytes
+                    + " bytes must hold the largest file, " + maxFileBytes + " bytes");
+        }
+        this.k = k;
+        this.r = r;
+        this.b = b;
+        this.threshold = threshold;
+        this.maxFileBytes = maxFileBytes;
+        this.family = HashFamily.murmur(r * b, seed);
+        this.out = out;
+        this.bufferKiB = (int) kibibytes(bufferBytes);
+        this.buffered = new Semaphore(bufferKiB);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // --dir=PATH (default .), --k=3, --rows=8 --bands=20, --threshold=0.7, --io-threads=N,
+        // --workers=N, --max-file-bytes=N (default 64 MiB), --buffer-bytes=N (default 256 MiB),
+        // --out=FILE (default stdout), --report-ms=1000, --metrics=FILE (JSON for *.json, else
+        // Prometheus text; set before Metrics is first used, as the switch is read once)
+        Options options = Options.parse(args);
+        String metricsFile = options.get("metrics", null);
+        if (metricsFile != null) {
+            System.setProperty("metrics", "true");
+        }
+        Path root = Paths.get(options.get("dir", "."));
+        int workers = options.getInt("workers", Runtime.getRuntime().availableProcessors());
+        int ioThreads = options.getInt("io-threads", 64);
+        String outFile = options.get("out", null);
+
+        try (PrintStream out = outFile == null ? new PrintStream(new FileOutputStream(FileDescriptor.out), false)
+                : new PrintStream(new BufferedOutputStream(new FileOutputStream(outFile)), false)) {
+            DuplicatePipeline pipeline = new DuplicatePipeline(options.getInt("k", 3), options.getInt("rows", 8),
+                    options.getInt("bands", 20), options.getDouble("threshold", 0.7),
+                    options.getLong("seed", DEFAULT_SEED), options.getLong("max-file-bytes", 64L << 20),
+                    options.getLong("buffer-bytes", 256L << 20), out);
+            pipeline.run(root, ioThreads, workers, options.getLong("report-ms", 1000));
+        }
+        if (metricsFile != null) {
+            Metrics.write(Paths.get(metricsFile));
+        }
+    }
+
+    // Run every stage to completion over the regular files under root
+    public void run(Path root, int ioThreads, int workers, long reportMillis) throws Exception {
+        Metrics.layout("murmur", r * b, r, b);
+        ExecutorService io = ioExecutor(ioThreads);
+        ExecutorService cpu = Executors.newFixedThreadPool(workers);
+        ExecutorService control = Executors.newCachedThreadPool();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long started = System.nanoTime();
+        long[] last = {started, 0};
+        reporter.scheduleAtFixedRate(() -> report(started, last), reportMillis, reportMillis, TimeUnit.MILLISECONDS);
+        try {
+            // Stages finish in any order, and the first to fail ends the run: the finally
+            // block interrupts the others, which would otherwise block on a queue forever
+            CompletionService<Void> stages = new ExecutorCompletionService<>(control);
+            stages.submit(() -> list(root));
+            stages.submit(() -> stage(io, ioThreads, toRead, toShingle, this::read));
+            stages.submit(() -> stage(cpu, workers, toShingle, toBand, this::shingle));
+            stages.submit(this::band);
+            for (int i = 0; i < 4; i++) {
+                stages.take().get();
+            }
+        } finally {
+            reporter.shutdownNow();
+            io.shutdownNow();
+            cpu.shutdownNow();
+            control.shutdownNow();
+        }
+        out.flush();
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.err.printf("Done: %d documents, %d candidate pairs >= %.2f in %.1f s (%.0f docs/sec, %.1f MB/s)%n",
+                documentsDone.get(), pairsReported.get(), threshold, seconds,
+                documentsDone.get() / seconds, bytesRead.get() / 1e6 / seconds);
+    }
+
+    // Virtual threads when the runtime has them (Java 21+), otherwise a fixed pool of platform threads
+    private static ExecutorService ioExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    private Void list(Path root) throws IOException, InterruptedException {
+        try (Stream<Path> files = Files.walk(root)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+            while (it.hasNext()) {
+                toRead.put(new Document(it.next()));
+            }
+        }
+        toRead.put(Document.END);
+        return null;
+    }
+
+    // Run `threads` copies of one step between two queues; the end marker is passed on
+    // once every copy has seen it, and the first copy to fail fails the stage
+    private Void stage(ExecutorService executor, int threads, BlockingQueue<Document> in,
+                       BlockingQueue<Document> next, Step step) throws Exception {
+        CompletionService<Void> copies = new ExecutorCompletionService<>(executor);
+        for (int i = 0; i < threads; i++) {
+            copies.submit(() -> {
+                while (true) {
+                    Document document = in.take();
+                    if (document == Document.END) {
+                        in.put(Document.END);
+                        return null;
+                    }
+                    if (step.apply(document)) {
+                        next.put(document);
+                    } else {
+                        documentsDone.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < threads; i++) {
+            copies.take().get();
+        }
+        next.put(Document.END);
+        return null;
+    }
+
+    // Read the whole file once there is room for it in the read buffer; a file growing
+    // meanwhile is cut at the size it had. Unreadable and oversized files are dropped
+    private boolean read(Document document) throws InterruptedException {
+        try (Metrics.Scope task = Metrics.task("read");
+             FileChannel channel = FileChannel.open(document.path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > maxFileBytes) {
+                System.err.println("Skipping " + document.path + ": " + size + " bytes is over --max-file-bytes="
+                        + maxFileBytes);
+                return false;
+            }
+            int permits = (int) kibibytes(size);
+            buffered.acquire(permits);
+            boolean handedOn = false;
+            try {
+                ByteBuffer bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // Until full or at end of file
+                }
+                document.bytes = bytes.array();
+                document.length = bytes.position();
+                document.permits = permits;
+                bytesRead.addAndGet(document.length);
+                Metrics.bytesRead(document.length);
+                handedOn = true;
+                return true;
+            } finally {
+                if (!handedOn) {
+                    buffered.release(permits);
+                }
+            }
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException("Read of " + document.path + " interrupted"); // The run is ending
+        } catch (IOException e) {
+            System.err.println("Skipping " + document.path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Shingle the bytes straight into the sketch, then give their room back to the readers.
+    // Each value is the top 32 bits of the 64-bit minimum, as in LSHIndex. A separate
+    // sketch stage would have to queue every document's shingle set, several times the
+    // size of its bytes and outside the read buffer, so sketching happens here
+    private boolean shingle(Document document) throws IOException {
+        try (Metrics.Scope task = Metrics.task("shingle")) {
+            // Repeated shingles cannot lower a minimum, so the first SEEN_SHINGLES distinct
+            // ones skip the t hash updates when they recur; later ones are sketched every time
+            MinHashSketch sketch = MinHashSketch.kHash(family);
+            LongHashSet seen = new LongHashSet();
+            ReadableByteChannel channel = Channels.newChannel(
+                    new ByteArrayInputStream(document.bytes, 0, document.length));
+            new Shingler().characterKGrams(k, shingle -> {
+                if (seen.size() < SEEN_SHINGLES ? seen.add(shingle) : !seen.contains(shingle)) {
+                    sketch.accept(shingle);
+                }
+            }).consume(channel, Charset.defaultCharset());
+            if (seen.size() == 0) {
+                return false;
+            }
+            long[] minima = sketch.signature();
+            int[] signature = new int[minima.length];
+            for (int i = 0; i < minima.length; i++) {
+                signature[i] = (int) (minima[i] >>> 32);
+            }
+            document.signature = signature;
+            return true;
+        } finally {
+            document.bytes = null;
+            buffered.release(document.permits);
+        }
+    }
+
+    // Single consumer owning the band tables: probe each band, verify the candidates
+    // seen for the first time, then index the document. The buckets only stop growing at
+    // the end, so that is when their sizes go into the distribution
+    private Void band() throws InterruptedException {
+        int t = r * b;
+        LongIntMultiMap[] bands = new LongIntMultiMap[b];
+        for (int band = 0; band < b; band++) {
+            bands[band] = new LongIntMultiMap();
+        }
+        List<int[]> signatures = new ArrayList<>(); // Chunks of CHUNK_DOCUMENTS signatures
+        List<Path> paths = new ArrayList<>();
+        LongHashSet checked = new LongHashSet();
+        while (true) {
+            Document document = toBand.take();
+            if (document == Document.END) {
+                if (Metrics.ENABLED) {
+                    for (int band = 0; band < b; band++) {
+                        int current = band;
+                        bands[band].forEach((key, bucket, size) -> Metrics.bucket(current, key, size, bucket[0]));
+                    }
+                }
+                return null;
+            }
+            try (Metrics.Scope task = Metrics.task("band")) {
+                int id = paths.size();
+                if (id == maxDocuments) {
+                    throw new IllegalStateException("Band tables are full at " + maxDocuments
+                            + " documents; split the tree into several runs");
+                }
+                int[] signature = document.signature;
+                checked.clear();
+                for (int band = 0; band < b; band++) {
+                    long key = BandingEngine.bandKey(signature, band * r, r);
+                    int[] bucket = bands[band].bucket(key);
+                    int size = bands[band].size(key);
+                    if (Metrics.ENABLED) {
+                        Metrics.bandCandidates(band, size);
+                        Metrics.largestBucket(band, key, size + 1, size > 0 ? bucket[0] : id);
+                    }
+                    for (int i = 0; i < size; i++) {
+                        int other = bucket[i];
+                        if (!checked.add(other + 1L)) {
+                            continue;
+                        }
+                        double estimate = agreement(signatures.get(other / CHUNK_DOCUMENTS),
+                                (other % CHUNK_DOCUMENTS) * t, signature);
+                        if (estimate >= threshold) {
+                            out.printf("%s\t%s\t%.4f%n", paths.get(other), document.path, estimate);
+                            pairsReported.incrementAndGet();
+                            Metrics.count("pairs_reported", 1);
+                        }
+                    }
+                    bands[band].add(key, id);
+                }
+                if (id % CHUNK_DOCUMENTS == 0) {
+                    signatures.add(new int[CHUNK_DOCUMENTS * t]);
+                }
+                System.arraycopy(signature, 0, signatures.get(id / CHUNK_DOCUMENTS), (id % CHUNK_DOCUMENTS) * t, t);
+                paths.add(document.path);
+                documentsDone.incrementAndGet();
+                Metrics.count("documents", 1);
+            }
+        }
+    }
+
+    private static long kibibytes(long bytes) {
+        return (bytes + 1023) >> 10;
+    }
+
+    private static double agreement(int[] chunk, int base, int[] signature) {
+        int matches = 0;
+        for (int i = 0; i < signature.length; i++) {
+            if (chunk[base + i] == signature[i]) {
+                matches++;
+            }
+        }
+        return (double) matches / signature.length;
+    }
+
+    private void report(long started, long[] last) {
+        long now = System.nanoTime();
+        long done = documentsDone.get();
+        double rate = (done - last[1]) / ((now - last[0]) / 1e9);
+        last[0] = now;
+        last[1] = done;
+        System.err.printf("[%5.1f s] %d docs (%.0f docs/sec), %d pairs | queues: read=%d shingle=%d band=%d"
+                        + " | buffered: %.1f MiB%n", (now - started) / 1e9, done, rate, pairsReported.get(),
+                toRead.size(), toShingle.size(), toBand.size(), (bufferKiB - buffered.availablePermits()) / 1024.0);
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        // Returns false to drop the document from the rest of the pipeline
+        boolean apply(Document document) throws Exception;
+    }
+
+    // One file on its way through the stages; each stage releases what it consumed
+    private static final class Document {
+        static final Document END = new Document(null);
+
+        final Path path;
+        byte[] bytes;
+        int length;
+        int permits; // Read-buffer KiB held until shingled
+        int[] signature;
+
+        Document(Path path) {
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Exact all-pairs Jaccard similarity join over the users of a UserItemMatrix.
+// Movies are renumbered rarest-first and users are ordered by set size, so a pair
+// is only evaluated if it passes the length filter (|y| >= t * |x|) and shares a
+// token in the prefixes of both sets (prefix filtering). Probe users are split
+// into tiles that run as tasks on a ForkJoinPool.
+//
+// The weighted join uses the ratings as weights and weighted Jaccard
+// sum(min) / sum(max). Sizes become total weights, and a prefix is the shortest
+// one whose remaining weight is below t * total: a pair at or above t has
+// sum(min) >= t * max(W_x, W_y), which the suffixes alone cannot provide.
+public class ExactSimilarityJoin {
+    private static final int TILE_SIZE = 64;
+    private static final double EPSILON = 1e-9;
+
+    private final int[] offsets;
+    private final int[] tokens;
+    private final float[] weights;
+    private final int[] order;
+    private final int[] sizes;
+    private final double[] lengths;
+    private final int[] prefixLengths;
+    private final int[] postingOffsets;
+    private final int[] postings;
+    private final double threshold;
+    // probe() stamps, taken by one leaf Tile at a time and returned after it; they belong
+    // to this join, so none stays attached to a pool thread once the join returns
+    private final ConcurrentLinkedQueue<int[]> stamps = new ConcurrentLinkedQueue<>();
+
+    private ExactSimilarityJoin(UserItemMatrix matrix, double threshold, boolean weighted) {
+        this.threshold = threshold;
+        int numUsers = matrix.numUsers();
+        int[] movieIds = matrix.movieIds();
+        float[] ratings = matrix.ratings();
+
+        // Rank movies by ascending frequency so prefixes hold the rarest movies, sorting
+        // (frequency << 32 | movie) keys
+        int maxMovie = 0;
+        for (int movie : movieIds) {
+            maxMovie = Math.max(maxMovie, movie);
+        }
+        int[] frequency = new int[maxMovie + 1];
+        for (int movie : movieIds) {
+            frequency[movie]++;
+        }
+        long[] byFrequency = new long[maxMovie + 1];
+        for (int movie = 0; movie <= maxMovie; movie++) {
+            byFrequency[movie] = ((long) frequency[movie] << 32) | movie;
+        }
+        Arrays.sort(byFrequency);
+        int[] rank = new int[maxMovie + 1];
+        for (int i = 0; i <= maxMovie; i++) {
+            rank[(int) byFrequency[i]] = i;
+        }
+
+        // Re-encode every user as a sorted array of ranks, in ascending size (or weight) order,
+        // sorting (size << 32 | row) keys. A total weight is keyed by its index among the
+        // sorted weights instead, which orders rows the same way
+        double[] rowLengths = new double[numUsers];
+        for (int row = 0; row < numUsers; row++) {
+            rowLengths[row] = weighted ? matrix.totalRating(row) : matrix.size(row);
+        }
+        double[] sortedLengths = weighted ? rowLengths.clone() : null;
+        if (weighted) {
+            Arrays.sort(sortedLengths);
+        }
+        long[] bySize = new long[numUsers];
+        for (int row = 0; row < numUsers; row++) {
+            long size = weighted ? Arrays.binarySearch(sortedLengths, rowLengths[row]) : matrix.size(row);
+            bySize[row] = (size << 32) | row;
+        }
+        Arrays.sort(bySize);
+        order = new int[numUsers];
+        sizes = new int[numUsers];
+        lengths = new double[numUsers];
+        prefixLengths = new int[numUsers];
+        offsets = new int[numUsers + 1];
+        tokens = new int[movieIds.length];
+        weights = weighted ? new float[movieIds.length] : null;
+        long[] entries = weighted ? new long[movieIds.length] : null;
+        for (int p = 0; p < numUsers; p++) {
+            int row = (int) bySize[p];
+            order[p] = row;
+            sizes[p] = matrix.size(row);
+            lengths[p] = rowLengths[row];
+            offsets[p + 1] = offsets[p] + sizes[p];
+            if (weighted) {
+                // Sort (rank, rating) entries together; ratings are non-negative, so bits order like values
+                for (int m = matrix.start(row), k = offsets[p]; m < matrix.end(row); m++, k++) {
+                    entries[k] = ((long) rank[movieIds[m]] << 32) | Float.floatToIntBits(ratings[m]);
+                }
+                Arrays.sort(entries, offsets[p], offsets[p + 1]);
+                for (int k = offsets[p]; k < offsets[p + 1]; k++) {
+                    tokens[k] = (int) (entries[k] >>> 32);
+                    weights[k] = Float.intBitsToFloat((int) entries[k]);
+                }
+            } else {
+                for (int m = matrix.start(row), k = offsets[p]; m < matrix.end(row); m++, k++) {
+                    tokens[k] = rank[movieIds[m]];
+                }
+                Arrays.sort(tokens, offsets[p], offsets[p + 1]);
+            }
+            prefixLengths[p] = weighted ? weightedPrefixLength(p) : prefixLength(sizes[p]);
+        }
+
+        // Inverted index over prefix tokens; each posting list is sorted by size
+        postingOffsets = new int[maxMovie + 2];
+        for (int p = 0; p < numUsers; p++) {
+            for (int k = offsets[p]; k < offsets[p] + prefixLengths[p]; k++) {
+                postingOffsets[tokens[k] + 1]++;
+            }
+        }
+        for (int token = 0; token <= maxMovie; token++) {
+            postingOffsets[token + 1] += postingOffsets[token];
+        }
+        postings = new int[postingOffsets[maxMovie + 1]];
+        int[] cursor = Arrays.copyOf(postingOffsets, maxMovie + 1);
+        for (int p = 0; p < numUsers; p++) {
+            for (int k = offsets[p]; k < offsets[p] + prefixLengths[p]; k++) {
+                postings[cursor[tokens[k]]++] = p;
+            }
+        }
+    }
+
+    // All user pairs with Jaccard >= threshold, evaluated on the common pool
+    public static Result selfJoin(UserItemMatrix matrix, double threshold) {
+        return selfJoin(matrix, threshold, ForkJoinPool.commonPool());
+    }
+
+    public static Result selfJoin(UserItemMatrix matrix, double threshold, ForkJoinPool pool) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be in (0, 1]: " + threshold);
+        }
+        return join(matrix, threshold, false, pool);
+    }
+
+    // All user pairs with weighted Jaccard (ratings as weights) >= threshold
+    public static Result weightedSelfJoin(UserItemMatrix matrix, double threshold) {
+        return weightedSelfJoin(matrix, threshold, ForkJoinPool.commonPool());
+    }
+
+    public static Result weightedSelfJoin(UserItemMatrix matrix, double threshold, ForkJoinPool pool) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be in (0, 1]: " + threshold);
+        }
+        return join(matrix, threshold, true, pool);
+    }
+
+    private static Result join(UserItemMatrix matrix, double threshold, boolean weighted, ForkJoinPool pool) {
+        try (Metrics.Scope phase = Metrics.phase("exact-join")) {
+            ExactSimilarityJoin join = new ExactSimilarityJoin(matrix, threshold, weighted);
+            Result result = pool.invoke(join.new Tile(0, matrix.numUsers()));
+            result.sort();
+            return result;
+        }
+    }
+
+    // ceil(t * size): both the smallest partner size and the smallest overlap that can reach the threshold
+    private int lowerBound(int size) {
+        return (int) Math.ceil(threshold * size - EPSILON);
+    }
+
+    private int prefixLength(int size) {
+        return Math.max(1, Math.min(size, size - lowerBound(size) + 1));
+    }
+
+    // Shortest prefix of user p whose remaining weight is below t * total weight
+    private int weightedPrefixLength(int p) {
+        double required = threshold * lengths[p] - EPSILON;
+        double suffix = 0;
+        int k = offsets[p + 1];
+        while (k > offsets[p] && suffix + weights[k - 1] < required) {
+            suffix += weights[--k];
+        }
+        return Math.max(1, Math.min(sizes[p], k - offsets[p] + 1));
+    }
+
+    // Probe users order[from, to) against every smaller (earlier) user
+    private Result probe(int from, int to) {
+        int[] stamp = stamps.poll();
+        if (stamp == null) {
+            stamp = new int[order.length]; // At most one per thread running a leaf at once
+        }
+        try {
+            return probe(from, to, stamp);
+        } finally {
+            stamps.add(stamp);
+        }
+    }
+
+    // Each p is probed once, so the stamp p + 1 left by other leaves never matches
+    private Result probe(int from, int to, int[] stamp) {
+        Result result = new Result();
+        for (int p = from; p < to; p++) {
+            double minLength = weights == null ? lowerBound(sizes[p]) : threshold * lengths[p] - EPSILON;
+            int prefixEnd = offsets[p] + prefixLengths[p];
+
+            for (int k = offsets[p]; k < prefixEnd; k++) {
+                int token = tokens[k];
+                int postingEnd = postingOffsets[token + 1];
+                for (int i = firstWithLength(postingOffsets[token], postingEnd, minLength); i < postingEnd; i++) {
+                    int q = postings[i];
+                    if (q >= p) {
+                        break;
+                    }
+                    if (stamp[q] == p + 1) {
+                        continue;
+                    }
+                    stamp[q] = p + 1;
+
+                    double similarity = weights == null
+                            ? SortedIntSet.jaccard(tokens, offsets[q], offsets[q + 1], tokens, offsets[p], offsets[p + 1])
+                            : weightedJaccard(q, p);
+                    if (similarity >= threshold) {
+                        result.add(order[q], order[p], similarity);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    // sum(min) / sum(max) of two users' rank-sorted weighted tokens
+    private double weightedJaccard(int q, int p) {
+        int i = offsets[q], iEnd = offsets[q + 1];
+        int j = offsets[p], jEnd = offsets[p + 1];
+        double min = 0;
+        while (i < iEnd && j < jEnd) {
+            if (tokens[i] < tokens[j]) {
+                i++;
+            } else if (tokens[i] > tokens[j]) {
+                j++;
+            } else {
+                min += Math.min(weights[i++], weights[j++]);
+            }
+        }
+        double max = lengths[q] + lengths[p] - min;
+        return max == 0 ? 0 : min / max;
+    }
+
+    // First posting in [from, to) whose user has at least minLength movies (or total weight)
+    private int firstWithLength(int from, int to, double minLength) {
+        int low = from, high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lengths[postings[mid]] < minLength) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private final class Tile extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Tile(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from <= TILE_SIZE) {
+                return probe(from, to);
+            }
+            int mid = (from + to) >>> 1;
+            Tile left = new Tile(from, mid);
+            left.fork();
+            Result right = new Tile(mid, to).compute();
+            Result result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+
+    // Matching pairs of matrix rows (left < right) with their similarity
+    public static final class Result {
+        private long[] pairs = new long[16];
+        private double[] similarities = new double[16];
+        private int size;
+
+        void add(int rowA, int rowB, double similarity) {
+            if (size == pairs.length) {
+                pairs = Arrays.copyOf(pairs, size * 2);
+                similarities = Arrays.copyOf(similarities, size * 2);
+            }
+            pairs[size] = pairKey(Math.min(rowA, rowB), Math.max(rowA, rowB));
+            similarities[size++] = similarity;
+        }
+
+        void addAll(Result other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.left(i), other.right(i), other.similarities[i]);
+            }
+        }
+
+        // Sort by (left, right) so output does not depend on scheduling. Every pair is found
+        // once, so each key has one place in the sorted keys for its similarity to follow it to
+        void sort() {
+            long[] keys = Arrays.copyOf(pairs, size);
+            Arrays.sort(keys);
+            double[] sortedSimilarities = new double[size];
+            for (int i = 0; i < size; i++) {
+                sortedSimilarities[Arrays.binarySearch(keys, pairs[i])] = similarities[i];
+            }
+            pairs = keys;
+            similarities = sortedSimilarities;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // (left << 32 | right), ascending over i
+        public long pair(int i) {
+            return pairs[i];
+        }
+
+        public int left(int i) {
+            return (int) (pairs[i] >>> 32);
+        }
+
+        public int right(int i) {
+            return (int) pairs[i];
+        }
+
+        public double similarity(int i) {
+            return similarities[i];
+        }
+
+        static long pairKey(int left, int right) {
+            return ((long) left << 32) | (right & 0xFFFFFFFFL);
+        }
+    }
+}
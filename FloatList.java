@@ -0,0 +1,38 @@
+import java.util.*;
+
+// Growable primitive float array
+final class FloatList {
+    private float[] values;
+    private int size;
+
+    FloatList() {
+        this(1024);
+    }
+
+    FloatList(int capacity) {
+        values = new float[Math.max(capacity, 16)];
+    }
+
+    void add(float value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        values[size++] = value;
+    }
+
+    float get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    float[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,140 @@
+// A family of t independent-looking 64-bit hash functions over 64-bit keys.
+// Values use the full long range, so min-hashes are not biased by folding into a small range.
+public interface HashFamily {
+
+    // Number of hash functions (t)
+    int size();
+
+    // Value of hash function i for the key
+    long hash(long key, int index);
+
+    // All t values for the key; implementations may share work across functions
+    default void hashAll(long key, long[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = hash(key, i);
+        }
+    }
+
+    // Lower each minima[i] to hash(key, i)
+    default void updateMinima(long key, long[] minima) {
+        for (int i = 0; i < minima.length; i++) {
+            long value = hash(key, i);
+            if (value < minima[i]) {
+                minima[i] = value;
+            }
+        }
+    }
+
+    // One independently seeded MurmurHash3 finalizer per function
+    static HashFamily murmur(int size, long seed) {
+        return new Murmur(size, seed);
+    }
+
+    // Mix the key once, then derive the t values with odd multiply-add transforms
+    static HashFamily derived(int size, long seed) {
+        return new Derived(size, seed);
+    }
+
+    static HashFamily forName(String name, int size, long seed) {
+        switch (name) {
+            case "murmur":
+                return murmur(size, seed);
+            case "derived":
+                return derived(size, seed);
+            default:
+                throw new IllegalArgumentException("Unknown hash family: " + name);
+        }
+    }
+
+    // MurmurHash3 64-bit finalizer
+    static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // 64-bit key for a k-gram (FNV-1a over UTF-16 chars, then finalized)
+    static long hashChars(CharSequence text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+
+    // Seeds from a SplitMix64 sequence, so a (size, seed) pair always gives the same family
+    static long[] seeds(int size, long seed) {
+        long[] seeds = new long[size];
+        long state = seed;
+        for (int i = 0; i < size; i++) {
+            state += 0x9e3779b97f4a7c15L;
+            seeds[i] = mix64(state);
+        }
+        return seeds;
+    }
+
+    final class Murmur implements HashFamily {
+        private final long[] seeds;
+
+        Murmur(int size, long seed) {
+            this.seeds = seeds(size, seed);
+        }
+
+        @Override
+        public int size() {
+            return seeds.length;
+        }
+
+        @Override
+        public long hash(long key, int index) {
+            return mix64(key ^ seeds[index]);
+        }
+    }
+
+    final class Derived implements HashFamily {
+        private final long seed;
+        private final long[] multipliers;
+        private final long[] increments;
+
+        Derived(int size, long seed) {
+            this.seed = seed;
+            long[] values = seeds(2 * size, seed);
+            multipliers = new long[size];
+            increments = new long[size];
+            for (int i = 0; i < size; i++) {
+                multipliers[i] = values[2 * i] | 1L;
+                increments[i] = values[2 * i + 1];
+            }
+        }
+
+        @Override
+        public int size() {
+            return multipliers.length;
+        }
+
+        @Override
+        public long hash(long key, int index) {
+            return multipliers[index] * mix64(key ^ seed) + increments[index];
+        }
+
+        @Override
+        public void hashAll(long key, long[] out) {
+            long base = mix64(key ^ seed);
+            for (int i = 0; i < out.length; i++) {
+                out[i] = multipliers[i] * base + increments[i];
+            }
+        }
+
+        @Override
+        public void updateMinima(long key, long[] minima) {
+            long base = mix64(key ^ seed);
+            for (int i = 0; i < minima.length; i++) {
+                minima[i] = Math.min(minima[i], multipliers[i] * base + increments[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// MinHash signatures and LSH band buckets kept current under a stream of
+// (userId, movieId) rating events, without reloading the ratings or re-signing
+// everyone. Adding a movie can only lower a signature's minima, so an add is one
+// O(t) pass over the hash functions, and only the bands whose r values changed
+// move to another bucket.
+//
+// Removing a movie cannot be applied that way: it may have been a minimum, and the
+// runner-up is not kept. A removal therefore marks the user stale and queues it.
+// A stale user keeps its old signature, which can only overstate similarity, until
+// it is re-signed from its current movies. Once more than maxStaleUsers are queued
+// or the oldest has waited maxStaleMillis, every writer re-signs up to REBUILD_BATCH
+// of them after its own event, so the backlog drains faster than removals fill it
+// and no single writer pays for all of it. rebuildStale() drains the whole queue,
+// for a quiet index from a timer.
+//
+// Users hash to one of LOCK_STRIPES locks, so writers on different users rarely
+// contend. Each band's buckets are split the same way by key, and a bucket lock is
+// only held to move one user. Locks are taken user first, then one bucket at a time.
+public class IncrementalLSH {
+    private static final int LOCK_STRIPES = 64;
+    private static final int STRIPE_SHIFT = 64 - Integer.numberOfTrailingZeros(LOCK_STRIPES);
+    private static final int REBUILD_BATCH = 8;
+
+    private final int numHashes;
+    private final int r;
+    private final int b;
+    private final int maxStaleUsers;
+    private final long maxStaleNanos;
+    private final SignatureBuilder builder;
+    private final ConcurrentHashMap<Integer, User> users = new ConcurrentHashMap<>();
+    private final ReentrantLock[] userLocks = new ReentrantLock[LOCK_STRIPES];
+    private final LongIntMultiMap[] buckets;
+    private final ReentrantLock[] bucketLocks;
+    private final ConcurrentLinkedQueue<User> stale = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger staleCount = new AtomicInteger();
+
+    public IncrementalLSH(int numHashes, int r, int b, long seed, int maxStaleUsers, long maxStaleMillis) {
+        if (r <= 0 || b <= 0 || r * b > numHashes) {
+            throw new IllegalArgumentException("Need r * b <= numHashes, got r=" + r + ", b=" + b + ", t=" + numHashes);
+        }
+        if (maxStaleUsers < 0 || maxStaleMillis < 0) {
+            throw new IllegalArgumentException("Staleness bounds must be non-negative");
+        }
+        this.numHashes = numHashes;
+        this.r = r;
+        this.b = b;
+        this.maxStaleUsers = maxStaleUsers;
+        this.maxStaleNanos = maxStaleMillis * 1_000_000L;
+        this.builder = new SignatureBuilder(numHashes, seed);
+        this.buckets = new LongIntMultiMap[b * LOCK_STRIPES];
+        this.bucketLocks = new ReentrantLock[b * LOCK_STRIPES];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongIntMultiMap();
+            bucketLocks[i] = new ReentrantLock();
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+    }
+
+    // Index every user of the matrix, signing them in parallel with the same hashes as add()
+    public static IncrementalLSH build(UserItemMatrix matrix, int numHashes, int r, int b, long seed,
+                                       int maxStaleUsers, long maxStaleMillis) {
+        IncrementalLSH index = new IncrementalLSH(numHashes, r, b, seed, maxStaleUsers, maxStaleMillis);
+        SignatureMatrix signatures = index.builder.build(matrix);
+        for (int row = 0; row < matrix.numUsers(); row++) {
+            User user = new User(matrix.userId(row), signatures.row(row), matrix.size(row));
+            for (int m = matrix.start(row); m < matrix.end(row); m++) {
+                user.items.add(matrix.movieIds()[m]);
+            }
+            index.users.put(user.userId, user);
+            index.link(user);
+        }
+        return index;
+    }
+
+    // Record that the user rated the movie; returns true if the signature changed
+    public boolean add(int userId, int movieId) {
+        boolean changed;
+        ReentrantLock lock = userLock(userId);
+        lock.lock();
+        try {
+            User user = users.computeIfAbsent(userId, id -> new User(id, emptySignature(), 16));
+            user.items.add(movieId); // A repeated movie is harmless: it cannot lower a minimum twice
+            if (!user.indexed) {
+                changed = builder.update(movieId, user.signature, 0);
+                link(user);
+            } else {
+                int[] previous = user.signature.clone();
+                changed = builder.update(movieId, user.signature, 0);
+                if (changed) {
+                    relink(user, previous);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        maybeRebuild();
+        return changed;
+    }
+
+    // Record that the user no longer rates the movie; the signature catches up at the next
+    // rebuild. Returns false if the movie was not rated by the user
+    public boolean remove(int userId, int movieId) {
+        ReentrantLock lock = userLock(userId);
+        lock.lock();
+        try {
+            User user = users.get(userId);
+            if (user == null) {
+                return false;
+            }
+            boolean removed = false;
+            IntList items = user.items;
+            for (int i = 0; i < items.size(); ) {
+                if (items.get(i) == movieId) {
+                    items.set(i, items.get(items.size() - 1));
+                    items.removeLast();
+                    removed = true;
+                } else {
+                    i++;
+                }
+            }
+            if (!removed) {
+                return false;
+            }
+            if (user.staleSince == 0) {
+                user.staleSince = System.nanoTime() | 1; // Never 0, which means fresh
+                stale.add(user);
+                staleCount.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+        maybeRebuild();
+        return true;
+    }
+
+    // Drop a user and its buckets immediately; returns false if it was not indexed
+    public boolean removeUser(int userId) {
+        ReentrantLock lock = userLock(userId);
+        lock.lock();
+        try {
+            User user = users.remove(userId);
+            if (user == null) {
+                return false;
+            }
+            unlink(user);
+            return true; // A queued stale entry is skipped by rebuildStale()
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Re-sign every stale user from its current movies and move the bands that changed.
+    // Users left with no movies are dropped. Returns the number of users re-signed
+    public int rebuildStale() {
+        return rebuildStale(Integer.MAX_VALUE);
+    }
+
+    // Re-sign at most `limit` stale users, oldest first
+    private int rebuildStale(int limit) {
+        long[] minima = new long[numHashes];
+        int rebuilt = 0;
+        User user;
+        for (int polled = 0; polled < limit && (user = stale.poll()) != null; polled++) {
+            staleCount.decrementAndGet();
+            ReentrantLock lock = userLock(user.userId);
+            lock.lock();
+            try {
+                user.staleSince = 0;
+                if (users.get(user.userId) != user) {
+                    continue; // Removed since it was queued
+                }
+                if (user.items.size() == 0) {
+                    users.remove(user.userId);
+                    unlink(user);
+                } else {
+                    int[] previous = user.signature.clone();
+                    int[] items = user.items.toArray();
+                    builder.signature(items, 0, items.length, minima, user.signature, 0);
+                    relink(user, previous);
+                }
+                rebuilt++;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return rebuilt;
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    // Slots allocated across all bucket tables, which follows the live band keys rather
+    // than every key the index has seen
+    long bucketCapacity() {
+        long capacity = 0;
+        for (int stripe = 0; stripe < buckets.length; stripe++) {
+            bucketLocks[stripe].lock();
+            try {
+                capacity += buckets[stripe].capacity();
+            } finally {
+                bucketLocks[stripe].unlock();
+            }
+        }
+        return capacity;
+    }
+
+    // Users whose removals are not yet reflected in their signature
+    public int staleUsers() {
+        return staleCount.get();
+    }
+
+    // Copy of the user's current signature, or null if the user is not indexed
+    public int[] signature(int userId) {
+        ReentrantLock lock = userLock(userId);
+        lock.lock();
+        try {
+            User user = users.get(userId);
+            return user == null ? null : user.signature.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Up to k other users sharing a bucket with the user whose estimated Jaccard is >= threshold, best first
+    public List<LSHIndex.Match> query(int userId, double threshold, int k) {
+        int[] signature = signature(userId);
+        if (signature == null) {
+            return new ArrayList<>();
+        }
+        IntList candidates = new IntList(64);
+        for (int band = 0; band < b; band++) {
+            long key = BandingEngine.bandKey(signature, band * r, r);
+            int stripe = bucketStripe(band, key);
+            bucketLocks[stripe].lock();
+            try {
+                int[] bucket = buckets[stripe].bucket(key);
+                int size = buckets[stripe].size(key);
+                for (int i = 0; i < size; i++) {
+                    candidates.add(bucket[i]);
+                }
+            } finally {
+                bucketLocks[stripe].unlock();
+            }
+        }
+
+        int[] ids = candidates.toArray();
+        Arrays.sort(ids);
+        PriorityQueue<LSHIndex.Match> best = new PriorityQueue<>(Comparator.comparingDouble(LSHIndex.Match::similarity));
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == userId || (i > 0 && ids[i] == ids[i - 1])) {
+                continue;
+            }
+            int[] other = signature(ids[i]);
+            if (other == null) {
+                continue; // Removed since the buckets were read
+            }
+            int matches = 0;
+            for (int h = 0; h < numHashes; h++) {
+                if (other[h] == signature[h]) {
+                    matches++;
+                }
+            }
+            double similarity = (double) matches / numHashes;
+            if (similarity >= threshold && (best.size() < k || similarity > best.peek().similarity())) {
+                best.add(new LSHIndex.Match(ids[i], similarity));
+                if (best.size() > k) {
+                    best.poll();
+                }
+            }
+        }
+        List<LSHIndex.Match> result = new ArrayList<>(best);
+        result.sort(Comparator.comparingDouble(LSHIndex.Match::similarity).reversed());
+        return result;
+    }
+
+    private void maybeRebuild() {
+        int count = staleCount.get();
+        if (count == 0) {
+            return;
+        }
+        User oldest = stale.peek();
+        if (count > maxStaleUsers || (oldest != null && System.nanoTime() - oldest.staleSince > maxStaleNanos)) {
+            rebuildStale(REBUILD_BATCH);
+        }
+    }
+
+    // Caller holds the user's lock
+    private void link(User user) {
+        for (int band = 0; band < b; band++) {
+            addToBucket(band, BandingEngine.bandKey(user.signature, band * r, r), user.userId);
+        }
+        user.indexed = true;
+    }
+
+    private void unlink(User user) {
+        if (!user.indexed) {
+            return;
+        }
+        for (int band = 0; band < b; band++) {
+            removeFromBucket(band, BandingEngine.bandKey(user.signature, band * r, r), user.userId);
+        }
+        user.indexed = false;
+    }
+
+    // Move the user out of the buckets of `previous` for every band whose values changed
+    private void relink(User user, int[] previous) {
+        for (int band = 0; band < b; band++) {
+            int from = band * r;
+            if (Arrays.equals(previous, from, from + r, user.signature, from, from + r)) {
+                continue;
+            }
+            removeFromBucket(band, BandingEngine.bandKey(previous, from, r), user.userId);
+            addToBucket(band, BandingEngine.bandKey(user.signature, from, r), user.userId);
+        }
+    }
+
+    private void addToBucket(int band, long key, int userId) {
+        int stripe = bucketStripe(band, key);
+        bucketLocks[stripe].lock();
+        try {
+            buckets[stripe].add(key, userId);
+        } finally {
+            bucketLocks[stripe].unlock();
+        }
+    }
+
+    private void removeFromBucket(int band, long key, int userId) {
+        int stripe = bucketStripe(band, key);
+        bucketLocks[stripe].lock();
+        try {
+            buckets[stripe].remove(key, userId);
+        } finally {
+            bucketLocks[stripe].unlock();
+        }
+    }
+
+    // Band keys are already mixed, so their top bits pick the stripe
+    private static int bucketStripe(int band, long key) {
+        return band * LOCK_STRIPES + (int) (key >>> STRIPE_SHIFT);
+    }
+
+    private ReentrantLock userLock(int userId) {
+        return userLocks[(int) HashFamily.mix64(userId) & (LOCK_STRIPES - 1)];
+    }
+
+    private int[] emptySignature() {
+        int[] signature = new int[numHashes];
+        Arrays.fill(signature, -1);
+        return signature;
+    }
+
+    // Guarded by the user's lock, except staleSince, which writers peek at to bound staleness
+    private static final class User {
+        final int userId;
+        final int[] signature;
+        final IntList items;
+        boolean indexed;
+        volatile long staleSince;
+
+        User(int userId, int[] signature, int capacity) {
+            this.userId = userId;
+            this.signature = signature;
+            this.items = new IntList(capacity);
+        }
+    }
+}
@@ -7,22 +7,24 @@ public class KGramSimilarity {
     public static void main(String[] args) throws IOException {
         // File paths
         String[] docNames = {"D1.txt", "D2.txt", "D3.txt", "D4.txt"};
-        Map<String, String> documents = new HashMap<>();
         
-        // Read documents
-        for (String doc : docNames) {
-            documents.put(doc, new String(Files.readAllBytes(Paths.get(doc))).toLowerCase());
-        }
-        
-        // Store k-grams
-        Map<String, Set<String>> char2grams = new HashMap<>();
-        Map<String, Set<String>> char3grams = new HashMap<>();
-        Map<String, Set<String>> word2grams = new HashMap<>();
+        // Stream each document once, hashing its k-grams straight into primitive sets
+        Map<String, LongHashSet> char2grams = new HashMap<>();
+        Map<String, LongHashSet> char3grams = new HashMap<>();
+        Map<String, LongHashSet> word2grams = new HashMap<>();
         
         for (String doc : docNames) {
-            char2grams.put(doc, generateCharacterKGrams(documents.get(doc), 2));
-            char3grams.put(doc, generateCharacterKGrams(documents.get(doc), 3));
-            word2grams.put(doc, generateWordKGrams(documents.get(doc), 2));
+            LongHashSet char2 = new LongHashSet();
+            LongHashSet char3 = new LongHashSet();
+            LongHashSet word2 = new LongHashSet();
+            new Shingler()
+                    .characterKGrams(2, char2::add)
+                    .characterKGrams(3, char3::add)
+                    .wordKGrams(2, word2::add)
+                    .consume(Paths.get(doc));
+            char2grams.put(doc, char2);
+            char3grams.put(doc, char3);
+            word2grams.put(doc, word2);
         }
         
         // Print distinct k-gram counts
@@ -43,9 +45,9 @@ public class KGramSimilarity {
                 String doc1 = docNames[i];
                 String doc2 = docNames[j];
                 
-                double jaccardChar2 = jaccardSimilarity(char2grams.get(doc1), char2grams.get(doc2));
-                double jaccardChar3 = jaccardSimilarity(char3grams.get(doc1), char3grams.get(doc2));
-                double jaccardWord2 = jaccardSimilarity(word2grams.get(doc1), word2grams.get(doc2));
+                double jaccardChar2 = char2grams.get(doc1).jaccard(char2grams.get(doc2));
+                double jaccardChar3 = char3grams.get(doc1).jaccard(char3grams.get(doc2));
+                double jaccardWord2 = word2grams.get(doc1).jaccard(word2grams.get(doc2));
                 
                 System.out.printf("%s - %s: Char 2-gram=%.4f, Char 3-gram=%.4f, Word 2-gram=%.4f\n",
                         doc1, doc2, jaccardChar2, jaccardChar3, jaccardWord2);
@@ -62,22 +64,17 @@ public class KGramSimilarity {
         return kgrams;
     }
 
-    // Generate word-based k-grams
-    private static Set<String> generateWordKGrams(String text, int k) {
-        String[] words = text.split("\\s+");
-        Set<String> kgrams = new HashSet<>();
-        for (int i = 0; i <= words.length - k; i++) {
-            kgrams.add(String.join(" ", Arrays.copyOfRange(words, i, i + k)));
-        }
-        return kgrams;
-    }
-
-    // Compute Jaccard similarity
+    // Compute Jaccard similarity without copying either set
     public static double jaccardSimilarity(Set<String> set1, Set<String> set2) {
-        Set<String> intersection = new HashSet<>(set1);
-        intersection.retainAll(set2);
-        Set<String> union = new HashSet<>(set1);
-        union.addAll(set2);
-        return (double) intersection.size() / union.size();
+        Set<String> smaller = set1.size() <= set2.size() ? set1 : set2;
+        Set<String> larger = smaller == set1 ? set2 : set1;
+        int intersection = 0;
+        for (String kgram : smaller) {
+            if (larger.contains(kgram)) {
+                intersection++;
+            }
+        }
+        int union = set1.size() + set2.size() - intersection;
+        return union == 0 ? 0.0 : (double) intersection / union;
     }
 }
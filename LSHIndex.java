@@ -0,0 +1,248 @@
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+// Long-lived LSH index over item sets, using the same b bands of r MinHash rows as
+// LSHMovieLens. Users can be inserted and removed without a rebuild; a query probes
+// one bucket per band and ranks the candidates by signature agreement.
+public class LSHIndex {
+    private final int numHashes;
+    private final int r;
+    private final int b;
+    private final HashFamily family;
+    private final LongIntMultiMap[] bands;
+    private final Map<Integer, Integer> slotByUser = new HashMap<>();
+    private final IntList freeSlots = new IntList(16);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int[] signatures;
+    private int[] userBySlot;
+    private int slotCount;
+
+    public LSHIndex(int numHashes, int r, int b, long seed) {
+        if (r <= 0 || b <= 0 || r * b > numHashes) {
+            throw new IllegalArgumentException("Need r * b <= numHashes, got r=" + r + ", b=" + b + ", t=" + numHashes);
+        }
+        this.numHashes = numHashes;
+        this.r = r;
+        this.b = b;
+        this.family = HashFamily.murmur(numHashes, seed);
+        this.bands = new LongIntMultiMap[b];
+        for (int band = 0; band < b; band++) {
+            bands[band] = new LongIntMultiMap();
+        }
+        this.signatures = new int[16 * numHashes];
+        this.userBySlot = new int[16];
+    }
+
+    // Index every user of the matrix
+    public static LSHIndex build(UserItemMatrix matrix, int numHashes, int r, int b, long seed) {
+        LSHIndex index = new LSHIndex(numHashes, r, b, seed);
+        for (int row = 0; row < matrix.numUsers(); row++) {
+            index.insert(matrix.userId(row), Arrays.copyOfRange(matrix.movieIds(), matrix.start(row), matrix.end(row)));
+        }
+        return index;
+    }
+
+    // MinHash signature of an item set; each value is the top 32 bits of the 64-bit minimum
+    public int[] signature(int[] items) {
+        long[] minima = new long[numHashes];
+        Arrays.fill(minima, Long.MAX_VALUE);
+        for (int item : items) {
+            family.updateMinima(item, minima);
+        }
+        int[] signature = new int[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            signature[i] = (int) (minima[i] >>> 32);
+        }
+        return signature;
+    }
+
+    // Add a user, replacing any previous entry for the same id
+    public void insert(int userId, int[] items) {
+        int[] signature = signature(items);
+        lock.writeLock().lock();
+        try {
+            Integer existing = slotByUser.get(userId);
+            if (existing != null) {
+                unlink(existing);
+            }
+            int slot = allocateSlot();
+            System.arraycopy(signature, 0, signatures, slot * numHashes, numHashes);
+            userBySlot[slot] = userId;
+            slotByUser.put(userId, slot);
+            for (int band = 0; band < b; band++) {
+                bands[band].add(BandingEngine.bandKey(signatures, slot * numHashes + band * r, r), slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns false if the user was not indexed
+    public boolean remove(int userId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotByUser.remove(userId);
+            if (slot == null) {
+                return false;
+            }
+            unlink(slot);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slotByUser.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Up to k indexed users whose estimated Jaccard with the item set is >= threshold, best first
+    public List<Match> query(int[] items, double threshold, int k) {
+        return query(items, threshold, k, 0);
+    }
+
+    // Multi-probe query: besides its own bucket, each band also probes up to `probes`
+    // neighbouring buckets, each formed by replacing one of the band's r min-hashes with
+    // the query's second-smallest hash for that function. An indexed set that misses the
+    // query's minimum element often has the runner-up as its minimum, so extra probes
+    // recover similar users that fall just outside the query's own buckets, reaching a
+    // given recall with fewer bands.
+    public List<Match> query(int[] items, double threshold, int k, int probes) {
+        int[][] minima = twoSmallest(items);
+        int[] query = minima[0];
+        int[] runnerUp = minima[1];
+        lock.readLock().lock();
+        try {
+            IntList candidates = new IntList(64);
+            int[] probe = new int[r];
+            for (int band = 0; band < b; band++) {
+                collect(band, BandingEngine.bandKey(query, band * r, r), candidates);
+                for (int p = 0; p < Math.min(probes, r); p++) {
+                    int position = band * r + p;
+                    if (runnerUp[position] == query[position]) {
+                        continue; // Fewer than two distinct elements
+                    }
+                    System.arraycopy(query, band * r, probe, 0, r);
+                    probe[p] = runnerUp[position];
+                    collect(band, BandingEngine.bandKey(probe, 0, r), candidates);
+                }
+            }
+
+            int[] slots = candidates.toArray();
+            Arrays.sort(slots);
+            PriorityQueue<Match> best = new PriorityQueue<>(Comparator.comparingDouble(Match::similarity));
+            for (int i = 0; i < slots.length; i++) {
+                if (i > 0 && slots[i] == slots[i - 1]) {
+                    continue;
+                }
+                double similarity = agreement(query, slots[i]);
+                if (similarity >= threshold && (best.size() < k || similarity > best.peek().similarity())) {
+                    best.add(new Match(userBySlot[slots[i]], similarity));
+                    if (best.size() > k) {
+                        best.poll();
+                    }
+                }
+            }
+
+            List<Match> result = new ArrayList<>(best);
+            result.sort(Comparator.comparingDouble(Match::similarity).reversed());
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void collect(int band, long key, IntList candidates) {
+        int[] bucket = bands[band].bucket(key);
+        int size = bands[band].size(key);
+        for (int i = 0; i < size; i++) {
+            candidates.add(bucket[i]);
+        }
+    }
+
+    // Smallest and second-smallest value of every hash function over the items, folded like signature()
+    private int[][] twoSmallest(int[] items) {
+        long[] first = new long[numHashes];
+        long[] second = new long[numHashes];
+        Arrays.fill(first, Long.MAX_VALUE);
+        Arrays.fill(second, Long.MAX_VALUE);
+        long[] values = new long[numHashes];
+        for (int item : items) {
+            family.hashAll(item, values);
+            for (int i = 0; i < numHashes; i++) {
+                long value = values[i];
+                if (value < first[i]) {
+                    second[i] = first[i];
+                    first[i] = value;
+                } else if (value < second[i] && value != first[i]) {
+                    second[i] = value;
+                }
+            }
+        }
+        int[][] folded = new int[2][numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            folded[0][i] = (int) (first[i] >>> 32);
+            folded[1][i] = second[i] == Long.MAX_VALUE ? folded[0][i] : (int) (second[i] >>> 32);
+        }
+        return folded;
+    }
+
+    // Fraction of hashes where the query agrees with the signature in the slot
+    private double agreement(int[] query, int slot) {
+        int base = slot * numHashes;
+        int matches = 0;
+        for (int i = 0; i < numHashes; i++) {
+            if (signatures[base + i] == query[i]) {
+                matches++;
+            }
+        }
+        return (double) matches / numHashes;
+    }
+
+    private void unlink(int slot) {
+        for (int band = 0; band < b; band++) {
+            bands[band].remove(BandingEngine.bandKey(signatures, slot * numHashes + band * r, r), slot);
+        }
+        freeSlots.add(slot);
+    }
+
+    private int allocateSlot() {
+        if (freeSlots.size() > 0) {
+            return freeSlots.removeLast();
+        }
+        if (slotCount == userBySlot.length) {
+            userBySlot = Arrays.copyOf(userBySlot, slotCount * 2);
+            signatures = Arrays.copyOf(signatures, slotCount * 2 * numHashes);
+        }
+        return slotCount++;
+    }
+
+    public static final class Match {
+        private final int userId;
+        private final double similarity;
+
+        Match(int userId, double similarity) {
+            this.userId = userId;
+            this.similarity = similarity;
+        }
+
+        public int userId() {
+            return userId;
+        }
+
+        public double similarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d (%.4f)", userId, similarity);
+        }
+    }
+}
@@ -1,10 +1,11 @@
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.stream.*;
 
 public class LSHMovieLens {
     private static final String RATINGS_FILE = "ratings.csv";
-    private static final int NUM_USERS = 943;
-    private static final int NUM_MOVIES = 1682;
+    private static final long DEFAULT_SEED = 42L;
     private static final int[][] HASH_CONFIGS = {
         {50, 5, 10},   // 50 hash functions → r=5, b=10
         {100, 5, 20},  // 100 hash functions → r=5, b=20
@@ -12,140 +13,212 @@ public class LSHMovieLens {
         {200, 10, 20}  // 200 hash functions → r=10, b=20
     };
 
-    public static void main(String[] args) throws IOException {
-        Map<Integer, Set<Integer>> userMovieMap = loadUserMovieData(RATINGS_FILE);
-        Map<String, Double> exactSimilarities = computeExactJaccard(userMovieMap);
-        System.out.println("Exact Jaccard Similarity (≥ 0.6): " + exactSimilarities.size());
-
-        for (int[] config : HASH_CONFIGS) {
-            int numHashes = config[0], r = config[1], b = config[2];
-
-            System.out.println("\nUsing " + numHashes + " hash functions, r=" + r + ", b=" + b);
-            List<int[]> minHashes = generateMinHashes(userMovieMap, numHashes);
-
-            // Perform LSH
-            Set<String> candidatePairs = performLSH(minHashes, b, r);
-            System.out.println("Candidate Pairs Found: " + candidatePairs.size());
-
-            // Evaluate against exact Jaccard similarity
-            evaluateErrors(exactSimilarities, candidatePairs);
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Options options = Options.parse(args);
+        // --metrics=FILE records phase timings and bucket statistics and writes them as JSON
+        // (*.json) or Prometheus text; the switch is read once, before Metrics is first used
+        String metricsFile = options.get("metrics", null);
+        if (metricsFile != null) {
+            System.setProperty("metrics", "true");
         }
-    }
-
-    private static Map<Integer, Set<Integer>> loadUserMovieData(String filename) throws IOException {
-        Map<Integer, Set<Integer>> userMovieMap = new HashMap<>();
-        BufferedReader br = new BufferedReader(new FileReader(filename));
-        String line;
-        br.readLine(); // Skip header
-
-        while ((line = br.readLine()) != null) {
-            String[] parts = line.split(",");
-            int userId = Integer.parseInt(parts[0]);
-            int movieId = Integer.parseInt(parts[1]);
-
-            userMovieMap.computeIfAbsent(userId, k -> new HashSet<>()).add(movieId);
+        long seed = options.getLong("seed", DEFAULT_SEED);
+        String signatureDir = options.get("signature-dir", null);
+        UserItemMatrix matrix = UserItemMatrix.load(RATINGS_FILE);
+
+        // --weighted compares users by weighted Jaccard over their ratings, with weighted MinHash signatures
+        boolean weighted = options.flag("weighted");
+        ExactSimilarityJoin.Result exactSimilarities = weighted
+                ? ExactSimilarityJoin.weightedSelfJoin(matrix, 0.6)
+                : ExactSimilarityJoin.selfJoin(matrix, 0.6);
+        System.out.println("Exact " + (weighted ? "Weighted " : "") + "Jaccard Similarity (≥ 0.6): " + exactSimilarities.size());
+
+        // --auto-tune adds a layout chosen from the observed similarity distribution
+        List<int[]> configs = new ArrayList<>(Arrays.asList(HASH_CONFIGS));
+        if (options.flag("auto-tune")) {
+            configs.add(autoTune(matrix, options, seed, weighted));
         }
-        br.close();
-        return userMovieMap;
-    }
-
-    private static Map<String, Double> computeExactJaccard(Map<Integer, Set<Integer>> userMovieMap) {
-        Map<String, Double> jaccardMap = new HashMap<>();
-
-        for (int userA : userMovieMap.keySet()) {
-            for (int userB : userMovieMap.keySet()) {
-                if (userA < userB) {
-                    Set<Integer> moviesA = userMovieMap.get(userA);
-                    Set<Integer> moviesB = userMovieMap.get(userB);
 
-                    Set<Integer> intersection = new HashSet<>(moviesA);
-                    intersection.retainAll(moviesB);
+        // --shards=N bands in N worker JVMs that exchange buckets through files under --shard-dir
+        // (default: a temporary directory, removed afterwards); --worker-heap=SIZE sets their -Xmx
+        int shards = options.getInt("shards", 0);
+        Path shardDir = null;
+        List<String> workerOptions = new ArrayList<>();
+        if (shards > 0) {
+            if (options.getInt("max-bucket", 0) > 0) {
+                throw new IllegalArgumentException("--max-bucket is not supported with --shards");
+            }
+            if (signatureDir != null) {
+                throw new IllegalArgumentException("--signature-dir is not supported with --shards");
+            }
+            String dir = options.get("shard-dir", null);
+            shardDir = dir != null ? Paths.get(dir) : Files.createTempDirectory("lsh-shards");
+            String heap = options.get("worker-heap", null);
+            if (heap != null) {
+                workerOptions.add("-Xmx" + heap);
+            }
+        }
 
-                    Set<Integer> union = new HashSet<>(moviesA);
-                    union.addAll(moviesB);
+        // The workers are gone by the time a run returns or throws, so their directory can go too
+        boolean tempShardDir = shards > 0 && options.get("shard-dir", null) == null;
+        try {
+            for (String mode : MovieLensSignatures.signatureModes(options)) {
+                for (int[] config : configs) {
+                    int numHashes = config[0], r = config[1], b = config[2];
+
+                    System.out.println("\nUsing " + numHashes + " hash functions (" + mode + "), r=" + r + ", b=" + b);
+                    Metrics.layout(mode, numHashes, r, b);
+
+                    // Perform LSH, or read the band tables of a cached signature file (--signature-dir).
+                    // A bucket policy needs the signatures themselves, so it bands the file's signatures
+                    BucketPolicy policy = bucketPolicy(options, seed);
+                    long[] candidatePairs;
+                    if (shards > 0) {
+                        candidatePairs = new ShardedLSH(shardDir.resolve(mode + "-" + numHashes + "-r" + r + "-b" + b),
+                                mode, numHashes, r, b, seed, shards, workerOptions).candidatePairs(matrix);
+                    } else if (signatureDir != null) {
+                        Path path = Paths.get(signatureDir,
+                                mode + "-" + numHashes + "-r" + r + "-b" + b + "-s" + seed + ".lsh");
+                        try (SignatureFile file = MovieLensSignatures.openOrWrite(path, matrix, mode, numHashes,
+                                r, b, seed)) {
+                            candidatePairs = policy.mode() == BucketPolicy.Mode.NONE
+                                    ? file.candidatePairs()
+                                    : performLSH(file.signatures(), b, r, policy);
+                        }
+                    } else {
+                        SignatureMatrix minHashes = MovieLensSignatures.generate(matrix, mode, numHashes, seed);
+                        candidatePairs = performLSH(minHashes, b, r, policy);
+                    }
+                    System.out.println("Candidate Pairs Found: " + candidatePairs.length);
+                    if (policy.mode() != BucketPolicy.Mode.NONE) {
+                        System.out.println("Oversized Buckets (" + policy + "): " + policy.oversizedBuckets()
+                                + ", Pairs Suppressed: " + policy.suppressedPairs());
+                    }
 
-                    double similarity = (double) intersection.size() / union.size();
-                    if (similarity >= 0.6) {
-                        jaccardMap.put(userA + "-" + userB, similarity);
+                    // Evaluate against exact Jaccard similarity
+                    try (Metrics.Scope verify = Metrics.phase("verify")) {
+                        evaluateErrors(exactSimilarities, candidatePairs);
                     }
                 }
             }
+        } finally {
+            if (tempShardDir) {
+                deleteRecursively(shardDir);
+            }
         }
-        return jaccardMap;
-    }
 
-    private static List<int[]> generateMinHashes(Map<Integer, Set<Integer>> userMovieMap, int numHashes) {
-        Random random = new Random();
-        int[][] hashFunctions = new int[numHashes][2];
-
-        for (int i = 0; i < numHashes; i++) {
-            hashFunctions[i][0] = random.nextInt(NUM_MOVIES);
-            hashFunctions[i][1] = random.nextInt(NUM_MOVIES);
+        // --queries=N: time top-k lookups against a persistent index
+        int queries = options.getInt("queries", 0);
+        if (queries > 0) {
+            benchmarkIndex(matrix, queries, options.getInt("probes", 0), seed);
         }
 
-        List<int[]> minHashes = new ArrayList<>();
-        for (int user : userMovieMap.keySet()) {
-            int[] signature = new int[numHashes];
-            Arrays.fill(signature, Integer.MAX_VALUE);
+        if (metricsFile != null) {
+            Metrics.write(Paths.get(metricsFile));
+        }
+    }
 
-            for (int i = 0; i < numHashes; i++) {
-                for (int movie : userMovieMap.get(user)) {
-                    int hashValue = (hashFunctions[i][0] * movie + hashFunctions[i][1]) % NUM_MOVIES;
-                    signature[i] = Math.min(signature[i], hashValue);
-                }
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
             }
-            minHashes.add(signature);
         }
-        return minHashes;
     }
 
-    private static Set<String> performLSH(List<int[]> minHashes, int b, int r) {
-        Map<String, List<Integer>> bandBuckets = new HashMap<>();
-        Set<String> candidatePairs = new HashSet<>();
-
-        for (int band = 0; band < b; band++) {
-            bandBuckets.clear();
-
-            for (int userIdx = 0; userIdx < minHashes.size(); userIdx++) {
-                int[] signature = minHashes.get(userIdx);
-                int[] bandSignature = Arrays.copyOfRange(signature, band * r, (band + 1) * r);
-                String hashValue = Arrays.toString(bandSignature);
-
-                bandBuckets.computeIfAbsent(hashValue, k -> new ArrayList<>()).add(userIdx);
+    // --max-fn (default 0.05) bounds the expected false-negative rate, --candidate-budget the expected
+    // candidate count (default 5x the pairs at or above the threshold), --max-hashes the signature length
+    private static int[] autoTune(UserItemMatrix matrix, Options options, long seed, boolean weighted) {
+        int maxHashes = options.getInt("max-hashes", 200);
+        double maxFalseNegativeRate = options.getDouble("max-fn", 0.05);
+        LSHTuner.Sample sample = LSHTuner.Sample.of(matrix, options.getInt("tune-sample", 20000), 0.3, seed, weighted);
+
+        double similarPairs = 0;
+        for (int i = 0; i < sample.size(); i++) {
+            if (sample.similarity(i) >= 0.6) {
+                similarPairs += sample.weight(i);
             }
+        }
+        double budget = options.getDouble("candidate-budget", 5 * similarPairs);
+        LSHTuner.Choice choice = LSHTuner.tune(sample, maxHashes, 0.6, maxFalseNegativeRate, budget);
+        System.out.println("\nAuto-tuned layout: " + choice);
+        return new int[]{choice.hashes(), choice.r, choice.b};
+    }
 
-            for (List<Integer> users : bandBuckets.values()) {
-                if (users.size() > 1) {
-                    for (int i = 0; i < users.size(); i++) {
-                        for (int j = i + 1; j < users.size(); j++) {
-                            candidatePairs.add(users.get(i) + "-" + users.get(j));
-                        }
-                    }
-                }
+    // --probes=N adds multi-probe lookups on an index with half the bands, for comparison
+    private static void benchmarkIndex(UserItemMatrix matrix, int queries, int probes, long seed) {
+        long start = System.nanoTime();
+        LSHIndex index = LSHIndex.build(matrix, 100, 5, 20, seed);
+        System.out.printf("%nLSH index (100 hash functions, r=5, b=20): %d users indexed in %.1f ms%n",
+                index.size(), (System.nanoTime() - start) / 1e6);
+
+        Random random = new Random(seed);
+        long totalNanos = 0;
+        int totalMatches = 0;
+        for (int q = 0; q < queries; q++) {
+            int row = random.nextInt(matrix.numUsers());
+            int[] items = Arrays.copyOfRange(matrix.movieIds(), matrix.start(row), matrix.end(row));
+            long queryStart = System.nanoTime();
+            List<LSHIndex.Match> matches = index.query(items, 0.6, 10);
+            totalNanos += System.nanoTime() - queryStart;
+            totalMatches += matches.size();
+        }
+        System.out.printf("%d queries: %.3f ms average, %.1f matches per query (top 10, >= 0.6)%n",
+                queries, totalNanos / 1e6 / queries, (double) totalMatches / queries);
+
+        if (probes > 0) {
+            LSHIndex halfIndex = LSHIndex.build(matrix, 100, 5, 10, seed);
+            random = new Random(seed);
+            totalNanos = 0;
+            int probedMatches = 0;
+            int plainMatches = 0;
+            for (int q = 0; q < queries; q++) {
+                int row = random.nextInt(matrix.numUsers());
+                int[] items = Arrays.copyOfRange(matrix.movieIds(), matrix.start(row), matrix.end(row));
+                plainMatches += halfIndex.query(items, 0.6, 10).size();
+                long queryStart = System.nanoTime();
+                probedMatches += halfIndex.query(items, 0.6, 10, probes).size();
+                totalNanos += System.nanoTime() - queryStart;
             }
+            System.out.printf("r=5, b=10 index: %.1f matches per query, %.1f with %d probes per band (%.3f ms average)%n",
+                    (double) plainMatches / queries, (double) probedMatches / queries, probes, totalNanos / 1e6 / queries);
         }
-        return candidatePairs;
     }
 
-    private static void evaluateErrors(Map<String, Double> exact, Set<String> candidates) {
-        int falsePositives = 0;
-        int falseNegatives = 0;
+    // --max-bucket=M caps the pairs a single bucket may emit; --bucket-policy=split|sample|verify
+    // (default sample) picks how larger buckets are cut down, verify keeping pairs >= 0.6
+    private static BucketPolicy bucketPolicy(Options options, long seed) {
+        int maxBucket = options.getInt("max-bucket", 0);
+        if (maxBucket == 0) {
+            return BucketPolicy.none();
+        }
+        return BucketPolicy.of(options.get("bucket-policy", "sample"), maxBucket, 0.6, seed);
+    }
+
+    // Candidate pairs of signature rows, as sorted (rowA << 32 | rowB) keys
+    private static long[] performLSH(SignatureMatrix minHashes, int b, int r, BucketPolicy policy) {
+        return BandingEngine.candidatePairs(minHashes, b, r, policy);
+    }
+
+    // Both inputs are sorted pair keys over the same matrix rows, so one merge counts the overlap
+    private static void evaluateErrors(ExactSimilarityJoin.Result exact, long[] candidates) {
         int truePositives = 0;
         int totalPairs = exact.size();
 
-        for (String pair : candidates) {
-            if (!exact.containsKey(pair)) {
-                falsePositives++;
-            } else {
+        int i = 0, j = 0;
+        while (i < totalPairs && j < candidates.length) {
+            long pair = exact.pair(i);
+            if (pair == candidates[j]) {
                 truePositives++;
+                i++;
+                j++;
+            } else if (pair < candidates[j]) {
+                i++;
+            } else {
+                j++;
             }
         }
-
-        for (String pair : exact.keySet()) {
-            if (!candidates.contains(pair)) {
-                falseNegatives++;
-            }
-        }
+        int falsePositives = candidates.length - truePositives;
+        int falseNegatives = totalPairs - truePositives;
 
         System.out.println("False Positives: " + falsePositives);
         System.out.println("False Negatives: " + falseNegatives);
@@ -5,6 +5,7 @@ import java.util.*;
 public class LSHSimilarity {
     private static final int T = 160; // Total hash functions
     private static final double TAU = 0.7; // Jaccard similarity threshold
+    private static final double MAX_FALSE_NEGATIVE_RATE = 0.05;
 
     public static void main(String[] args) throws IOException {
           // File paths
@@ -34,6 +35,11 @@ public class LSHSimilarity {
         }
 
         System.out.println("Best values for LSH: r = " + bestR + ", b = " + bestB);
+
+        // Layout tuned against the observed similarities, allowing r * b < T
+        double[] observed = jaccardSimilarities.values().stream().mapToDouble(Double::doubleValue).toArray();
+        LSHTuner.Choice tuned = LSHTuner.tune(LSHTuner.Sample.of(observed), T, TAU, MAX_FALSE_NEGATIVE_RATE, observed.length);
+        System.out.println("Tuned values for LSH: " + tuned);
         System.out.println("\nLSH Probabilities for Document Pairs:");
         for (Map.Entry<String, Double> entry : jaccardSimilarities.entrySet()) {
             double probability = computeLSHProbability(entry.getValue(), bestR, bestB);
@@ -62,6 +68,6 @@ public class LSHSimilarity {
 
     // Compute LSH Probability
     private static double computeLSHProbability(double s, int r, int b) {
-        return 1 - Math.pow(1 - Math.pow(s, r), b);
+        return LSHTuner.collisionProbability(s, r, b);
     }
 }
@@ -0,0 +1,180 @@
+import java.util.*;
+
+// Chooses the LSH layout (r rows per band, b bands, r * b <= t) for a similarity
+// threshold by integrating the S-curve 1 - (1 - s^r)^b against a sample of the
+// observed pair-similarity distribution. A layout is acceptable if its expected
+// false-negative rate among pairs >= tau and its expected candidate count stay
+// within the given limits; among those, the one using the fewest hashes wins.
+public class LSHTuner {
+
+    private LSHTuner() {
+    }
+
+    // Probability that a pair with similarity s shares at least one of b buckets of r rows
+    public static double collisionProbability(double s, int r, int b) {
+        return 1 - Math.pow(1 - Math.pow(s, r), b);
+    }
+
+    public static Choice tune(Sample sample, int maxHashes, double tau,
+                              double maxFalseNegativeRate, double candidateBudget) {
+        Choice best = null;
+        Choice fallback = null;
+        for (int r = 1; r <= maxHashes; r++) {
+            for (int b = 1; r * b <= maxHashes; b++) {
+                Choice choice = evaluate(sample, r, b, tau);
+                boolean feasible = choice.falseNegativeRate <= maxFalseNegativeRate
+                        && choice.expectedCandidates <= candidateBudget;
+                if (feasible && (best == null || choice.cheaperThan(best))) {
+                    best = choice;
+                }
+                if (fallback == null || choice.closerThan(fallback, maxFalseNegativeRate, candidateBudget)) {
+                    fallback = choice;
+                }
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    // Expected false-negative rate and candidate count of one layout over the sample
+    public static Choice evaluate(Sample sample, int r, int b, double tau) {
+        double candidates = 0;
+        double similarPairs = 0;
+        double missed = 0;
+        double falsePositives = 0;
+        for (int i = 0; i < sample.size(); i++) {
+            double s = sample.similarity(i);
+            double weight = sample.weight(i);
+            double p = collisionProbability(s, r, b);
+            candidates += weight * p;
+            if (s >= tau) {
+                similarPairs += weight;
+                missed += weight * (1 - p);
+            } else {
+                falsePositives += weight * p;
+            }
+        }
+        double falseNegativeRate = similarPairs == 0 ? 0 : missed / similarPairs;
+        return new Choice(r, b, falseNegativeRate, candidates, falsePositives);
+    }
+
+    public static final class Choice {
+        public final int r;
+        public final int b;
+        public final double falseNegativeRate;
+        public final double expectedCandidates;
+        public final double expectedFalsePositives;
+
+        Choice(int r, int b, double falseNegativeRate, double expectedCandidates, double expectedFalsePositives) {
+            this.r = r;
+            this.b = b;
+            this.falseNegativeRate = falseNegativeRate;
+            this.expectedCandidates = expectedCandidates;
+            this.expectedFalsePositives = expectedFalsePositives;
+        }
+
+        public int hashes() {
+            return r * b;
+        }
+
+        // Fewer hashes first, then fewer candidates
+        boolean cheaperThan(Choice other) {
+            if (hashes() != other.hashes()) {
+                return hashes() < other.hashes();
+            }
+            return expectedCandidates < other.expectedCandidates;
+        }
+
+        // When nothing is feasible, minimise the relative overshoot of both limits
+        boolean closerThan(Choice other, double maxFalseNegativeRate, double candidateBudget) {
+            return overshoot(maxFalseNegativeRate, candidateBudget) < other.overshoot(maxFalseNegativeRate, candidateBudget);
+        }
+
+        private double overshoot(double maxFalseNegativeRate, double candidateBudget) {
+            double fn = Math.max(0, falseNegativeRate - maxFalseNegativeRate) / Math.max(maxFalseNegativeRate, 1e-9);
+            double cost = Math.max(0, expectedCandidates - candidateBudget) / Math.max(candidateBudget, 1);
+            return fn + cost;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("r=%d, b=%d (%d hashes): expected FN rate %.4f, candidates %.0f, false positives %.0f",
+                    r, b, hashes(), falseNegativeRate, expectedCandidates, expectedFalsePositives);
+        }
+    }
+
+    // Weighted sample of pair similarities; each weight is the number of pairs the value stands for
+    public static final class Sample {
+        private final double[] similarities;
+        private final double[] weights;
+
+        public Sample(double[] similarities, double[] weights) {
+            if (similarities.length != weights.length) {
+                throw new IllegalArgumentException("Need one weight per similarity");
+            }
+            this.similarities = similarities;
+            this.weights = weights;
+        }
+
+        // Every similarity stands for itself
+        public static Sample of(double[] similarities) {
+            double[] weights = new double[similarities.length];
+            Arrays.fill(weights, 1.0);
+            return new Sample(similarities, weights);
+        }
+
+        // Stratified sample of user pairs: all pairs >= floor come from an exact join
+        // (weight 1), the rest from uniformly random pairs scaled up to the full pair count
+        public static Sample of(UserItemMatrix matrix, int randomPairs, double floor, long seed) {
+            return of(matrix, randomPairs, floor, seed, false);
+        }
+
+        // Same, with weighted Jaccard over the ratings when `weighted` is set
+        public static Sample of(UserItemMatrix matrix, int randomPairs, double floor, long seed, boolean weighted) {
+            int n = matrix.numUsers();
+            double totalPairs = (double) n * (n - 1) / 2;
+            ExactSimilarityJoin.Result high = weighted
+                    ? ExactSimilarityJoin.weightedSelfJoin(matrix, floor)
+                    : ExactSimilarityJoin.selfJoin(matrix, floor);
+
+            Random random = new Random(seed);
+            double[] low = new double[randomPairs];
+            int lowCount = 0;
+            for (int i = 0; i < randomPairs && n > 1; i++) {
+                int a = random.nextInt(n);
+                int b = random.nextInt(n - 1);
+                if (b >= a) {
+                    b++;
+                }
+                double s = weighted ? matrix.weightedJaccard(a, b) : matrix.jaccard(a, b);
+                if (s < floor) {
+                    low[lowCount++] = s;
+                }
+            }
+
+            double lowWeight = lowCount == 0 ? 0 : Math.max(0, totalPairs - high.size()) / lowCount;
+            double[] similarities = new double[high.size() + lowCount];
+            double[] weights = new double[similarities.length];
+            for (int i = 0; i < high.size(); i++) {
+                similarities[i] = high.similarity(i);
+                weights[i] = 1.0;
+            }
+            for (int i = 0; i < lowCount; i++) {
+                similarities[high.size() + i] = low[i];
+                weights[high.size() + i] = lowWeight;
+            }
+            return new Sample(similarities, weights);
+        }
+
+        public int size() {
+            return similarities.length;
+        }
+
+        public double similarity(int i) {
+            return similarities[i];
+        }
+
+        public double weight(int i) {
+            return weights[i];
+        }
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.*;
+import java.util.function.LongConsumer;
+
+// Open-addressing hash set of primitive longs (linear probing, power-of-two table)
+public class LongHashSet {
+    private static final long FREE = 0L;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean hasFree;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        table = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    // Returns true if the value was not present
+    public boolean add(long value) {
+        if (value == FREE) {
+            boolean added = !hasFree;
+            hasFree = true;
+            if (added) {
+                size++;
+            }
+            return added;
+        }
+        int slot = slot(value);
+        while (table[slot] != FREE) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        if (++size > (table.length >> 1) + (table.length >> 2)) {
+            grow();
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == FREE) {
+            return hasFree;
+        }
+        int slot = slot(value);
+        while (table[slot] != FREE) {
+            if (table[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(LongConsumer action) {
+        if (hasFree) {
+            action.accept(FREE);
+        }
+        for (long value : table) {
+            if (value != FREE) {
+                action.accept(value);
+            }
+        }
+    }
+
+    // |A ∩ B|, probing the larger set with every element of the smaller one
+    public int intersectionSize(LongHashSet other) {
+        LongHashSet smaller = size <= other.size ? this : other;
+        LongHashSet larger = smaller == this ? other : this;
+        int common = smaller.hasFree && larger.hasFree ? 1 : 0;
+        for (long value : smaller.table) {
+            if (value != FREE && larger.contains(value)) {
+                common++;
+            }
+        }
+        return common;
+    }
+
+    public double jaccard(LongHashSet other) {
+        int intersection = intersectionSize(other);
+        int union = size + other.size - intersection;
+        return union == 0 ? 0.0 : (double) intersection / union;
+    }
+
+    public void clear() {
+        Arrays.fill(table, FREE);
+        hasFree = false;
+        size = 0;
+    }
+
+    // Values in ascending order
+    public long[] toSortedArray() {
+        long[] values = new long[size];
+        int n = 0;
+        if (hasFree) {
+            values[n++] = FREE;
+        }
+        for (long value : table) {
+            if (value != FREE) {
+                values[n++] = value;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private int slot(long value) {
+        return (int) HashFamily.mix64(value) & mask;
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        mask = table.length - 1;
+        for (long value : old) {
+            if (value != FREE) {
+                int slot = slot(value);
+                while (table[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+}
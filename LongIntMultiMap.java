@@ -0,0 +1,139 @@
+import java.util.*;
+
+// Open-addressing map from a long key to a small list of ints (one LSH band's buckets).
+// Emptied buckets keep their slot (and key) until the next resize, so no tombstones are
+// needed, but release their array. A resize rehashes the live keys only, and keeps the
+// capacity when fewer than half the slots hold one, so insert/remove churn over ever
+// new keys stays bounded by the live keys rather than every key ever seen.
+public class LongIntMultiMap {
+    private static final int[] EMPTY = new int[0];
+
+    private long[] keys;
+    private int[][] values;
+    private int[] sizes;
+    private boolean[] used;
+    private int mask;
+    private int slotsUsed;
+    private int liveKeys;
+
+    public LongIntMultiMap() {
+        this(16);
+    }
+
+    public LongIntMultiMap(int expectedKeys) {
+        allocate(Integer.highestOneBit(Math.max(4, expectedKeys * 2 - 1)) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity][];
+        sizes = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        slotsUsed = 0;
+        liveKeys = 0;
+    }
+
+    public void add(long key, int value) {
+        int slot = find(key);
+        if (!used[slot]) {
+            if (slotsUsed + 1 > (keys.length >> 1) + (keys.length >> 2)) {
+                grow();
+                slot = find(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            slotsUsed++;
+        }
+        if (sizes[slot] == 0) {
+            values[slot] = new int[2];
+            liveKeys++;
+        } else if (sizes[slot] == values[slot].length) {
+            values[slot] = Arrays.copyOf(values[slot], sizes[slot] * 2);
+        }
+        values[slot][sizes[slot]++] = value;
+    }
+
+    // Remove one occurrence of value under key; returns false if it was not there
+    public boolean remove(long key, int value) {
+        int slot = find(key);
+        if (!used[slot]) {
+            return false;
+        }
+        int[] bucket = values[slot];
+        for (int i = 0; i < sizes[slot]; i++) {
+            if (bucket[i] == value) {
+                bucket[i] = bucket[--sizes[slot]];
+                if (sizes[slot] == 0) {
+                    values[slot] = null;
+                    liveKeys--;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Number of values under key
+    public int size(long key) {
+        int slot = find(key);
+        return used[slot] ? sizes[slot] : 0;
+    }
+
+    // Values under key are bucket(key)[0 .. size(key)); the array must not be modified
+    public int[] bucket(long key) {
+        int slot = find(key);
+        return used[slot] && sizes[slot] > 0 ? values[slot] : EMPTY;
+    }
+
+    // Number of keys with at least one value
+    public int keyCount() {
+        return liveKeys;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    // Visit every non-empty bucket, in no particular order
+    public void forEach(BucketVisitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot] && sizes[slot] > 0) {
+                visitor.visit(keys[slot], values[slot], sizes[slot]);
+            }
+        }
+    }
+
+    private int find(long key) {
+        int slot = (int) HashFamily.mix64(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[][] oldValues = values;
+        int[] oldSizes = sizes;
+        boolean[] oldUsed = used;
+        allocate(liveKeys < oldKeys.length / 2 ? oldKeys.length : oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i] && oldSizes[i] > 0) {
+                int slot = find(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                sizes[slot] = oldSizes[i];
+                slotsUsed++;
+                liveKeys++;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface BucketVisitor {
+        // The bucket's values are values[0 .. size); the array must not be modified
+        void visit(long key, int[] values, int size);
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.*;
+
+// Growable primitive long array
+final class LongList {
+    private long[] values;
+    private int size;
+
+    LongList() {
+        this(1024);
+    }
+
+    LongList(int capacity) {
+        values = new long[Math.max(capacity, 16)];
+    }
+
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        values[size++] = value;
+    }
+
+    long get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,466 @@
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Process-wide instrumentation of the load -> shingle/sketch -> sign -> band -> verify
+// path: latency histograms and allocated bytes per phase, bytes read, named counters,
+// the bucket size distribution, candidate pairs per band and the largest buckets.
+// Band statistics are kept per LSH layout (mode, hashes, r, b), set with layout()
+// before banding, so band 3 of one layout is never added to band 3 of another.
+//
+// Off unless the JVM runs with -Dmetrics=true (the tools set it for --metrics=FILE).
+// ENABLED is a static final, so the JIT drops call sites guarded by it, and phase()
+// and task() hand out a shared no-op scope. Histograms are log-linear like
+// HdrHistogram: 16 sub-buckets per power of two, so quantiles are within 1/16.
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("metrics");
+
+    private static final int LARGEST_BUCKETS = 10;
+    private static final Scope NO_OP = new Scope(null, false);
+
+    private static final Map<String, Phase> PHASES = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static final Map<String, LongAdder> COUNTERS = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static final Map<String, Layout> LAYOUTS = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static volatile Layout current = new Layout("", 0, 0, 0);
+
+    private Metrics() {
+    }
+
+    // Time a phase that runs alone and may fan out to other threads; allocations are
+    // counted over all live threads. Use with try-with-resources
+    public static Scope phase(String name) {
+        return ENABLED ? new Scope(PHASES.computeIfAbsent(name, Phase::new), true) : NO_OP;
+    }
+
+    // Time one item's step on the current thread, e.g. one document in a pipeline stage
+    // running next to others; allocations are counted for this thread only
+    public static Scope task(String name) {
+        return ENABLED ? new Scope(PHASES.computeIfAbsent(name, Phase::new), false) : NO_OP;
+    }
+
+    public static void bytesRead(long bytes) {
+        if (ENABLED) {
+            BYTES_READ.add(bytes);
+        }
+    }
+
+    public static void count(String name, long delta) {
+        if (ENABLED) {
+            COUNTERS.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+        }
+    }
+
+    // Band statistics recorded from here on belong to this layout, until the next call
+    public static void layout(String mode, int numHashes, int r, int b) {
+        if (ENABLED) {
+            current = LAYOUTS.computeIfAbsent(mode + "/" + numHashes + "/" + r + "/" + b,
+                    name -> new Layout(mode, numHashes, r, b));
+        }
+    }
+
+    // Candidate pairs one band produced (or a probe of it found)
+    public static void bandCandidates(int band, long pairs) {
+        if (ENABLED) {
+            current.bandCandidates.computeIfAbsent(band, n -> new LongAdder()).add(pairs);
+        }
+    }
+
+    // A finished bucket: adds its size to the distribution and keeps it if among the largest.
+    // `member` is one row in it, to tell which users pile up
+    public static void bucket(int band, long key, int size, int member) {
+        if (ENABLED) {
+            current.bucketSizes.record(size);
+            largestBucket(band, key, size, member);
+        }
+    }
+
+    // A bucket that is still growing: only tracked among the largest, by (band, key)
+    public static void largestBucket(int band, long key, int size, int member) {
+        if (ENABLED) {
+            current.largestBucket(band, key, size, member);
+        }
+    }
+
+    // JSON for a *.json path, Prometheus text exposition format otherwise
+    public static void write(Path path) throws IOException {
+        String text = path.toString().endsWith(".json") ? toJson() : toPrometheus();
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"enabled\": ").append(ENABLED).append(",\n  \"phases\": {");
+        String separator = "\n";
+        for (Phase phase : phases()) {
+            Histogram latency = phase.latency;
+            json.append(separator).append("    \"").append(phase.name).append("\": {\"count\": ").append(latency.count())
+                    .append(", \"sum_ns\": ").append(latency.sum())
+                    .append(", \"p50_ns\": ").append(latency.quantile(0.5))
+                    .append(", \"p90_ns\": ").append(latency.quantile(0.9))
+                    .append(", \"p99_ns\": ").append(latency.quantile(0.99))
+                    .append(", \"max_ns\": ").append(latency.max())
+                    .append(", \"allocated_bytes\": ").append(phase.allocated.sum()).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"bytes_read\": ").append(BYTES_READ.sum()).append(",\n  \"counters\": {");
+        separator = "";
+        for (Map.Entry<String, Long> counter : counters().entrySet()) {
+            json.append(separator).append('"').append(counter.getKey()).append("\": ").append(counter.getValue());
+            separator = ", ";
+        }
+        json.append("},\n  \"layouts\": [");
+        String layoutSeparator = "\n";
+        for (Layout layout : layouts()) {
+            Histogram sizes = layout.bucketSizes;
+            json.append(layoutSeparator).append("    {\"mode\": \"").append(layout.mode)
+                    .append("\", \"hashes\": ").append(layout.hashes)
+                    .append(", \"r\": ").append(layout.r).append(", \"b\": ").append(layout.b)
+                    .append(",\n     \"bucket_sizes\": {\"count\": ").append(sizes.count())
+                    .append(", \"p50\": ").append(sizes.quantile(0.5))
+                    .append(", \"p99\": ").append(sizes.quantile(0.99))
+                    .append(", \"max\": ").append(sizes.max())
+                    .append(", \"histogram\": [");
+            separator = "";
+            for (long[] bin : sizes.bins()) {
+                json.append(separator).append("{\"le\": ").append(bin[0]).append(", \"count\": ").append(bin[1]).append('}');
+                separator = ", ";
+            }
+            json.append("]},\n     \"candidates_per_band\": {");
+            separator = "";
+            for (Map.Entry<Integer, LongAdder> band : layout.bandCandidates.entrySet()) {
+                json.append(separator).append('"').append(band.getKey()).append("\": ").append(band.getValue().sum());
+                separator = ", ";
+            }
+            json.append("},\n     \"largest_buckets\": [");
+            separator = "\n";
+            for (Bucket bucket : layout.largest()) {
+                json.append(separator).append("       {\"band\": ").append(bucket.band)
+                        .append(", \"key\": \"").append(Long.toHexString(bucket.key))
+                        .append("\", \"size\": ").append(bucket.size)
+                        .append(", \"member\": ").append(bucket.member).append('}');
+                separator = ",\n";
+            }
+            json.append("\n     ]}");
+            layoutSeparator = ",\n";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# TYPE similarity_phase_seconds summary\n");
+        for (Phase phase : phases()) {
+            Histogram latency = phase.latency;
+            for (double q : new double[]{0.5, 0.9, 0.99}) {
+                text.append("similarity_phase_seconds{phase=\"").append(phase.name).append("\",quantile=\"").append(q)
+                        .append("\"} ").append(latency.quantile(q) / 1e9).append('\n');
+            }
+            text.append("similarity_phase_seconds_sum{phase=\"").append(phase.name).append("\"} ")
+                    .append(latency.sum() / 1e9).append('\n');
+            text.append("similarity_phase_seconds_count{phase=\"").append(phase.name).append("\"} ")
+                    .append(latency.count()).append('\n');
+        }
+        text.append("# TYPE similarity_phase_allocated_bytes_total counter\n");
+        for (Phase phase : phases()) {
+            text.append("similarity_phase_allocated_bytes_total{phase=\"").append(phase.name).append("\"} ")
+                    .append(phase.allocated.sum()).append('\n');
+        }
+        text.append("# TYPE similarity_bytes_read_total counter\n");
+        text.append("similarity_bytes_read_total ").append(BYTES_READ.sum()).append('\n');
+        for (Map.Entry<String, Long> counter : counters().entrySet()) {
+            String name = "similarity_" + counter.getKey().replaceAll("[^A-Za-z0-9_]", "_") + "_total";
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(counter.getValue()).append('\n');
+        }
+        List<Layout> layouts = layouts();
+        text.append("# TYPE similarity_bucket_size histogram\n");
+        for (Layout layout : layouts) {
+            Histogram sizes = layout.bucketSizes;
+            long cumulative = 0;
+            for (long[] bin : sizes.bins()) {
+                cumulative += bin[1];
+                text.append("similarity_bucket_size_bucket{").append(layout.labels()).append(",le=\"").append(bin[0])
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            text.append("similarity_bucket_size_bucket{").append(layout.labels()).append(",le=\"+Inf\"} ")
+                    .append(sizes.count()).append('\n');
+            text.append("similarity_bucket_size_sum{").append(layout.labels()).append("} ").append(sizes.sum()).append('\n');
+            text.append("similarity_bucket_size_count{").append(layout.labels()).append("} ").append(sizes.count()).append('\n');
+        }
+        text.append("# TYPE similarity_band_candidate_pairs_total counter\n");
+        for (Layout layout : layouts) {
+            for (Map.Entry<Integer, LongAdder> band : layout.bandCandidates.entrySet()) {
+                text.append("similarity_band_candidate_pairs_total{").append(layout.labels()).append(",band=\"")
+                        .append(band.getKey()).append("\"} ").append(band.getValue().sum()).append('\n');
+            }
+        }
+        text.append("# TYPE similarity_largest_bucket_size gauge\n");
+        for (Layout layout : layouts) {
+            int rank = 1;
+            for (Bucket bucket : layout.largest()) {
+                text.append("similarity_largest_bucket_size{").append(layout.labels()).append(",rank=\"").append(rank++)
+                        .append("\",band=\"").append(bucket.band).append("\",member=\"").append(bucket.member)
+                        .append("\"} ").append(bucket.size).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static List<Phase> phases() {
+        synchronized (PHASES) {
+            return new ArrayList<>(PHASES.values());
+        }
+    }
+
+    private static Map<String, Long> counters() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        synchronized (COUNTERS) {
+            COUNTERS.forEach((name, adder) -> values.put(name, adder.sum()));
+        }
+        return values;
+    }
+
+    // Layouts in the order they were first used, then the statistics recorded before any layout was set
+    private static List<Layout> layouts() {
+        List<Layout> layouts;
+        synchronized (LAYOUTS) {
+            layouts = new ArrayList<>(LAYOUTS.values());
+        }
+        Layout unlabelled = current;
+        if (!layouts.contains(unlabelled) && !unlabelled.isEmpty()) {
+            layouts.add(0, unlabelled);
+        }
+        return layouts;
+    }
+
+    // Bytes allocated so far by the current thread, or by all live threads; -1 if unsupported
+    private static long allocatedBytes(boolean allThreads) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        if (!allThreads) {
+            return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+
+    // Open timing of one phase; close() records it. Threads that end during a phase
+    // take their allocations with them, so all-thread counts are a lower bound
+    public static final class Scope implements AutoCloseable {
+        private final Phase phase;
+        private final boolean allThreads;
+        private final long startNanos;
+        private final long startBytes;
+
+        private Scope(Phase phase, boolean allThreads) {
+            this.phase = phase;
+            this.allThreads = allThreads;
+            this.startBytes = phase == null ? 0 : allocatedBytes(allThreads);
+            this.startNanos = phase == null ? 0 : System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (phase == null) {
+                return;
+            }
+            phase.latency.record(System.nanoTime() - startNanos);
+            long endBytes = allocatedBytes(allThreads);
+            if (startBytes >= 0 && endBytes >= startBytes) {
+                phase.allocated.add(endBytes - startBytes);
+            }
+        }
+    }
+
+    private static final class Phase {
+        final String name;
+        final Histogram latency = new Histogram();
+        final LongAdder allocated = new LongAdder();
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    // Band statistics of one layout: candidate pairs per band, bucket sizes and the largest buckets
+    private static final class Layout {
+        final String mode;
+        final int hashes;
+        final int r;
+        final int b;
+        final ConcurrentSkipListMap<Integer, LongAdder> bandCandidates = new ConcurrentSkipListMap<>();
+        final Histogram bucketSizes = new Histogram();
+        private final Bucket[] largest = new Bucket[LARGEST_BUCKETS];
+        private volatile int largestFloor;
+
+        Layout(String mode, int hashes, int r, int b) {
+            this.mode = mode;
+            this.hashes = hashes;
+            this.r = r;
+            this.b = b;
+        }
+
+        boolean isEmpty() {
+            return bandCandidates.isEmpty() && bucketSizes.count() == 0 && largest().isEmpty();
+        }
+
+        String labels() {
+            return "mode=\"" + mode + "\",hashes=\"" + hashes + "\",r=\"" + r + "\",b=\"" + b + '"';
+        }
+
+        void largestBucket(int band, long key, int size, int member) {
+            if (size <= largestFloor) {
+                return;
+            }
+            synchronized (largest) {
+                int smallest = 0;
+                for (int i = 0; i < largest.length; i++) {
+                    Bucket bucket = largest[i];
+                    if (bucket != null && bucket.band == band && bucket.key == key) {
+                        largest[i] = new Bucket(band, key, Math.max(size, bucket.size), bucket.member);
+                        updateFloor();
+                        return;
+                    }
+                    if (bucket == null || (largest[smallest] != null && bucket.size < largest[smallest].size)) {
+                        smallest = i;
+                    }
+                }
+                if (largest[smallest] == null || size > largest[smallest].size) {
+                    largest[smallest] = new Bucket(band, key, size, member);
+                    updateFloor();
+                }
+            }
+        }
+
+        private void updateFloor() {
+            int floor = Integer.MAX_VALUE;
+            for (Bucket bucket : largest) {
+                floor = Math.min(floor, bucket == null ? 0 : bucket.size);
+            }
+            largestFloor = floor;
+        }
+
+        // Largest buckets, biggest first
+        List<Bucket> largest() {
+            List<Bucket> buckets = new ArrayList<>();
+            synchronized (largest) {
+                for (Bucket bucket : largest) {
+                    if (bucket != null) {
+                        buckets.add(bucket);
+                    }
+                }
+            }
+            buckets.sort((x, y) -> Integer.compare(y.size, x.size));
+            return buckets;
+        }
+    }
+
+    private static final class Bucket {
+        final int band;
+        final long key;
+        final int size;
+        final int member;
+
+        Bucket(int band, long key, int size, int member) {
+            this.band = band;
+            this.key = key;
+            this.size = size;
+            this.member = member;
+        }
+    }
+
+    // Log-linear histogram of non-negative longs: values below 16 are exact, larger ones
+    // fall into one of 16 equal sub-buckets of their power of two
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) << SUB_BITS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long count() {
+            return total.sum();
+        }
+
+        long sum() {
+            return sum.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Highest value of the bin holding the q-th quantile, capped at the maximum seen
+        long quantile(double q) {
+            long n = count();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max());
+                }
+            }
+            return max();
+        }
+
+        // Non-empty bins as {highest value, count}, ascending
+        List<long[]> bins() {
+            List<long[]> bins = new ArrayList<>();
+            for (int i = 0; i < counts.length(); i++) {
+                long count = counts.get(i);
+                if (count > 0) {
+                    bins.add(new long[]{upperBound(i), count});
+                }
+            }
+            return bins;
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        static long lowerBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int exponent = (index >>> SUB_BITS) + SUB_BITS - 1;
+            return (1L << exponent) + ((long) (index & (SUB_BUCKETS - 1)) << (exponent - SUB_BITS));
+        }
+
+        static long upperBound(int index) {
+            return index + 1 < (64 - SUB_BITS + 1) << SUB_BITS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+        }
+    }
+}
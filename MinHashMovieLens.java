@@ -1,115 +1,256 @@
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
 
 public class MinHashMovieLens {
     private static final String RATINGS_FILE = "ratings.csv";
     private static final int[] NUM_HASHES = {50, 100, 200};
-    private static final int NUM_USERS = 943;
-    private static final int NUM_MOVIES = 1682;
+    private static final long DEFAULT_SEED = 42L;
 
     public static void main(String[] args) throws IOException {
-        Map<Integer, Set<Integer>> userMovieMap = loadUserMovieData(RATINGS_FILE);
-        List<int[]> minHashes = generateMinHashes(userMovieMap, NUM_HASHES[NUM_HASHES.length - 1]); // 200 hash functions max
+        Options options = Options.parse(args);
+        // --metrics=FILE records phase timings and writes them as JSON (*.json) or Prometheus
+        // text; the switch is read once, before Metrics is first used
+        String metricsFile = options.get("metrics", null);
+        if (metricsFile != null) {
+            System.setProperty("metrics", "true");
+        }
+        int bits = options.getInt("bits", 0);
+        long seed = options.getLong("seed", DEFAULT_SEED);
+        String signatureDir = options.get("signature-dir", null);
+        UserItemMatrix matrix = UserItemMatrix.load(RATINGS_FILE);
 
-        Map<String, Double> exactSimilarities = computeExactJaccard(userMovieMap);
-        System.out.println("Exact Jaccard Similarity (>= 0.5): " + exactSimilarities.size());
+        // --weighted compares users by weighted Jaccard over their ratings, with weighted MinHash signatures
+        boolean weighted = options.flag("weighted");
+        Map<String, Double> exactSimilarities = computeExactJaccard(matrix, weighted);
+        System.out.println("Exact " + (weighted ? "Weighted " : "") + "Jaccard Similarity (>= 0.5): " + exactSimilarities.size());
 
-        for (int numHashes : NUM_HASHES) {
-            System.out.println("\nUsing " + numHashes + " hash functions:");
-            Map<String, Double> approxSimilarities = computeApproximateJaccard(userMovieMap, minHashes, numHashes);
-            evaluateErrors(exactSimilarities, approxSimilarities);
-        }
-    }
+        for (String mode : MovieLensSignatures.signatureModes(options)) {
+            int maxHashes = NUM_HASHES[NUM_HASHES.length - 1]; // 200 hash functions max
+            SignatureMatrix minHashes;
+            if (signatureDir != null) {
+                Path path = Paths.get(signatureDir, mode + "-" + maxHashes + "-s" + seed + ".sig");
+                try (SignatureFile file = MovieLensSignatures.openOrWrite(path, matrix, mode, maxHashes, 0, 0, seed)) {
+                    minHashes = file.signatures();
+                }
+            } else {
+                minHashes = MovieLensSignatures.generate(matrix, mode, maxHashes, seed);
+            }
+
+            // --bits=1|2|4|8 keeps only the lowest b bits of each hash in a packed store
+            BBitSignatureStore store = null;
+            if (bits > 0) {
+                store = new BBitSignatureStore(minHashes, maxHashes, bits);
+                System.out.println("\n" + bits + "-bit signature store: " + store.sizeInBytes() + " bytes (full: "
+                        + (long) minHashes.numRows() * maxHashes * Integer.BYTES + " bytes)");
+            }
+
+            for (int numHashes : NUM_HASHES) {
+                System.out.println("\nUsing " + numHashes + " hash functions (" + mode + (bits > 0 ? ", " + bits + "-bit" : "") + "):");
+                try (Metrics.Scope verify = Metrics.phase("verify")) {
+                    Map<String, Double> approxSimilarities = store != null
+                            ? computeBBitJaccard(matrix, store, numHashes, weighted)
+                            : computeApproximateJaccard(matrix, minHashes, numHashes);
+                    evaluateErrors(exactSimilarities, approxSimilarities);
+                }
+            }
 
-    private static Map<Integer, Set<Integer>> loadUserMovieData(String filename) throws IOException {
-        Map<Integer, Set<Integer>> userMovieMap = new HashMap<>();
-        BufferedReader br = new BufferedReader(new FileReader(filename));
-        String line;
-        br.readLine(); // Skip header
+            // --top-k=K: each user's K nearest neighbours instead of every pair above 0.5
+            int k = options.getInt("top-k", 0);
+            if (k > 0) {
+                benchmarkTopK(matrix, minHashes, mode, k, weighted);
+            }
+        }
 
-        while ((line = br.readLine()) != null) {
-            String[] parts = line.split(",");
-            int userId = Integer.parseInt(parts[0]);
-            int movieId = Integer.parseInt(parts[1]);
+        // --stream-events=N: replay N ratings as add/remove events against an incremental index
+        int events = options.getInt("stream-events", 0);
+        if (events > 0) {
+            benchmarkStreaming(matrix, events, seed);
+        }
 
-            userMovieMap.computeIfAbsent(userId, k -> new HashSet<>()).add(movieId);
+        if (metricsFile != null) {
+            Metrics.write(Paths.get(metricsFile));
         }
-        br.close();
-        return userMovieMap;
     }
 
-    private static Map<String, Double> computeExactJaccard(Map<Integer, Set<Integer>> userMovieMap) {
-        Map<String, Double> jaccardMap = new HashMap<>();
+    // Top-k neighbours from all pairs and from LSH candidates (r=5), scored by recall@k: the
+    // fraction of returned neighbours whose exact similarity reaches the user's exact k-th best
+    private static void benchmarkTopK(UserItemMatrix matrix, SignatureMatrix minHashes, String mode, int k,
+                                      boolean weighted) {
+        int n = matrix.numUsers();
+        double[] kthBest = new double[n];
+        double[] similarities = new double[n - 1];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0, c = 0; j < n; j++) {
+                if (j != i) {
+                    similarities[c++] = weighted ? matrix.weightedJaccard(i, j) : matrix.jaccard(i, j);
+                }
+            }
+            Arrays.sort(similarities);
+            kthBest[i] = similarities[Math.max(0, similarities.length - k)];
+        }
 
-        for (int userA : userMovieMap.keySet()) {
-            for (int userB : userMovieMap.keySet()) {
-                if (userA < userB) {
-                    Set<Integer> moviesA = userMovieMap.get(userA);
-                    Set<Integer> moviesB = userMovieMap.get(userB);
+        for (int numHashes : NUM_HASHES) {
+            long start = System.nanoTime();
+            TopKNeighbours allPairs = TopKNeighbours.allPairs(minHashes, numHashes, k);
+            double allPairsMillis = (System.nanoTime() - start) / 1e6;
 
-                    Set<Integer> intersection = new HashSet<>(moviesA);
-                    intersection.retainAll(moviesB);
+            int r = 5, b = numHashes / r;
+            Metrics.layout(mode, numHashes, r, b);
+            start = System.nanoTime();
+            long[] candidates = BandingEngine.candidatePairs(minHashes, b, r);
+            TopKNeighbours banded = TopKNeighbours.fromCandidates(minHashes, numHashes, candidates, k);
+            double bandedMillis = (System.nanoTime() - start) / 1e6;
 
-                    Set<Integer> union = new HashSet<>(moviesA);
-                    union.addAll(moviesB);
+            System.out.printf("%nTop-%d neighbours with %d hash functions:%n", k, numHashes);
+            System.out.printf("All pairs: %.1f ms, recall@%d %.3f%n",
+                    allPairsMillis, k, topKRecall(matrix, allPairs, kthBest, weighted));
+            System.out.printf("LSH (r=%d, b=%d, %d candidates): %.1f ms, recall@%d %.3f%n",
+                    r, b, candidates.length, bandedMillis, k, topKRecall(matrix, banded, kthBest, weighted));
+        }
+    }
 
-                    double similarity = (double) intersection.size() / union.size();
-                    if (similarity >= 0.5) {
-                        jaccardMap.put(userA + "-" + userB, similarity);
-                    }
+    private static double topKRecall(UserItemMatrix matrix, TopKNeighbours topK, double[] kthBest, boolean weighted) {
+        long hits = 0;
+        for (int row = 0; row < topK.numRows(); row++) {
+            for (int i = 0; i < topK.count(row); i++) {
+                int other = topK.neighbour(row, i);
+                double exact = weighted ? matrix.weightedJaccard(row, other) : matrix.jaccard(row, other);
+                if (exact >= kthBest[row]) {
+                    hits++;
                 }
             }
         }
-        return jaccardMap;
+        return (double) hits / ((long) topK.numRows() * topK.k());
     }
 
-    private static List<int[]> generateMinHashes(Map<Integer, Set<Integer>> userMovieMap, int numHashes) {
-        Random random = new Random();
-        int[][] hashFunctions = new int[numHashes][2];
+    // Build an incremental index without N random ratings, add them back as events from all
+    // cores, then remove a tenth of them again; each time the signatures must equal signing
+    // the resulting ratings from scratch
+    private static void benchmarkStreaming(UserItemMatrix matrix, int events, long seed) throws IOException {
+        int numHashes = 100, r = 5, b = 20;
+        int[] rowOf = new int[matrix.numRatings()];
+        for (int row = 0; row < matrix.numUsers(); row++) {
+            Arrays.fill(rowOf, matrix.start(row), matrix.end(row), row);
+        }
+        Random random = new Random(seed);
+        boolean[] held = new boolean[matrix.numRatings()];
+        int[] eventRatings = new int[Math.min(events, held.length)];
+        for (int e = 0; e < eventRatings.length; ) {
+            int k = random.nextInt(held.length);
+            if (!held[k]) {
+                held[k] = true;
+                eventRatings[e++] = k;
+            }
+        }
 
-        for (int i = 0; i < numHashes; i++) {
-            hashFunctions[i][0] = random.nextInt(NUM_MOVIES); // a
-            hashFunctions[i][1] = random.nextInt(NUM_MOVIES); // b
+        IncrementalLSH index = IncrementalLSH.build(without(matrix, held, rowOf), numHashes, r, b, seed, 1000, 1000);
+        long start = System.nanoTime();
+        long changed = Arrays.stream(eventRatings)
+                .parallel()
+                .filter(k -> index.add(matrix.userId(rowOf[k]), matrix.movieIds()[k]))
+                .count();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%nStreaming %d add events (%d hash functions, r=%d, b=%d): %.0f events/sec, "
+                + "%d signatures changed%n", eventRatings.length, numHashes, r, b, eventRatings.length / seconds, changed);
+        System.out.println("Signatures match a full rebuild: " + matches(index, matrix, numHashes, seed));
+
+        boolean[] removed = new boolean[held.length];
+        start = System.nanoTime();
+        for (int e = 0; e < eventRatings.length / 10; e++) {
+            int k = eventRatings[e];
+            removed[k] = true;
+            index.remove(matrix.userId(rowOf[k]), matrix.movieIds()[k]);
         }
+        seconds = (System.nanoTime() - start) / 1e9;
+        int staleUsers = index.staleUsers();
+        start = System.nanoTime();
+        int rebuilt = index.rebuildStale();
+        System.out.printf("Streaming %d remove events: %.0f events/sec, %d users left stale, re-signed in %.1f ms%n",
+                eventRatings.length / 10, eventRatings.length / 10 / seconds, staleUsers, (System.nanoTime() - start) / 1e6);
+        System.out.println("Signatures match a full rebuild: " + matches(index, without(matrix, removed, rowOf), numHashes, seed)
+                + " (" + rebuilt + " re-signed on demand)");
+    }
 
-        List<int[]> minHashes = new ArrayList<>();
-        for (int user : userMovieMap.keySet()) {
-            int[] signature = new int[numHashes];
-            Arrays.fill(signature, Integer.MAX_VALUE);
+    // The matrix without the ratings flagged in `skip`
+    private static UserItemMatrix without(UserItemMatrix matrix, boolean[] skip, int[] rowOf) throws IOException {
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        for (int k = 0; k < skip.length; k++) {
+            if (!skip[k]) {
+                users.add(matrix.userId(rowOf[k]));
+                movies.add(matrix.movieIds()[k]);
+                ratings.add(matrix.ratings()[k]);
+            }
+        }
+        return UserItemMatrix.build(users, movies, ratings);
+    }
 
-            for (int i = 0; i < numHashes; i++) {
-                for (int movie : userMovieMap.get(user)) {
-                    int hashValue = (hashFunctions[i][0] * movie + hashFunctions[i][1]) % NUM_MOVIES;
-                    signature[i] = Math.min(signature[i], hashValue);
-                }
+    private static boolean matches(IncrementalLSH index, UserItemMatrix matrix, int numHashes, long seed) {
+        SignatureMatrix expected = new SignatureBuilder(numHashes, seed).build(matrix);
+        if (index.size() != matrix.numUsers()) {
+            return false;
+        }
+        for (int row = 0; row < matrix.numUsers(); row++) {
+            if (!Arrays.equals(index.signature(matrix.userId(row)), expected.row(row))) {
+                return false;
             }
-            minHashes.add(signature);
         }
-        return minHashes;
+        return true;
     }
 
-    private static Map<String, Double> computeApproximateJaccard(Map<Integer, Set<Integer>> userMovieMap,
-                                                                 List<int[]> minHashes, int numHashes) {
-        Map<String, Double> approxJaccard = new HashMap<>();
-        List<int[]> truncatedSignatures = new ArrayList<>();
+    private static Map<String, Double> computeExactJaccard(UserItemMatrix matrix, boolean weighted) {
+        Map<String, Double> jaccardMap = new HashMap<>();
+        ExactSimilarityJoin.Result pairs = weighted
+                ? ExactSimilarityJoin.weightedSelfJoin(matrix, 0.5)
+                : ExactSimilarityJoin.selfJoin(matrix, 0.5);
 
-        for (int[] sig : minHashes) {
-            truncatedSignatures.add(Arrays.copyOf(sig, numHashes));
+        for (int i = 0; i < pairs.size(); i++) {
+            jaccardMap.put(matrix.userId(pairs.left(i)) + "-" + matrix.userId(pairs.right(i)), pairs.similarity(i));
         }
+        return jaccardMap;
+    }
 
-        List<Integer> users = new ArrayList<>(userMovieMap.keySet());
+    private static Map<String, Double> computeApproximateJaccard(UserItemMatrix matrix,
+                                                                 SignatureMatrix minHashes, int numHashes) {
+        Map<String, Double> approxJaccard = new HashMap<>();
 
-        for (int i = 0; i < users.size(); i++) {
-            for (int j = i + 1; j < users.size(); j++) {
+        // Compare the first numHashes entries in place instead of copying truncated signatures
+        int[] signatures = minHashes.values();
+        for (int i = 0; i < matrix.numUsers(); i++) {
+            int sigA = minHashes.offset(i);
+            for (int j = i + 1; j < matrix.numUsers(); j++) {
+                int sigB = minHashes.offset(j);
                 int matches = 0;
                 for (int k = 0; k < numHashes; k++) {
-                    if (truncatedSignatures.get(i)[k] == truncatedSignatures.get(j)[k]) {
+                    if (signatures[sigA + k] == signatures[sigB + k]) {
                         matches++;
                     }
                 }
                 double approxSim = (double) matches / numHashes;
                 if (approxSim >= 0.5) {
-                    approxJaccard.put(users.get(i) + "-" + users.get(j), approxSim);
+                    approxJaccard.put(matrix.userId(i) + "-" + matrix.userId(j), approxSim);
+                }
+            }
+        }
+        return approxJaccard;
+    }
+
+    // Weighted signatures have no set density to correct for, so they use the sparse estimator
+    private static Map<String, Double> computeBBitJaccard(UserItemMatrix matrix, BBitSignatureStore store,
+                                                          int numHashes, boolean weighted) {
+        Map<String, Double> approxJaccard = new HashMap<>();
+        double numMovies = matrix.distinctMovies();
+
+        for (int i = 0; i < matrix.numUsers(); i++) {
+            double r1 = matrix.size(i) / numMovies;
+            for (int j = i + 1; j < matrix.numUsers(); j++) {
+                double approxSim = weighted
+                        ? store.estimate(i, j, numHashes)
+                        : store.estimate(i, j, numHashes, r1, matrix.size(j) / numMovies);
+                if (approxSim >= 0.5) {
+                    approxJaccard.put(matrix.userId(i) + "-" + matrix.userId(j), approxSim);
                 }
             }
         }
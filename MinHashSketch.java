@@ -0,0 +1,181 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// Running MinHash sketch fed one shingle hash at a time, so a document is sketched
+// while it streams past and its shingle set is never materialised. Sketches built
+// from the same hashing are mergeable by element-wise minimum, which lets large
+// files be sketched as parallel byte segments and combined.
+public class MinHashSketch implements LongConsumer {
+    private final HashFamily family;
+    private final OnePermutationHashing oph;
+    private final long[] minima;
+
+    private MinHashSketch(HashFamily family, OnePermutationHashing oph, long[] minima) {
+        this.family = family;
+        this.oph = oph;
+        this.minima = minima;
+    }
+
+    // Classic sketch: t hash functions, each tracking its own minimum (O(t) per shingle)
+    public static MinHashSketch kHash(HashFamily family) {
+        long[] minima = new long[family.size()];
+        Arrays.fill(minima, Long.MAX_VALUE);
+        return new MinHashSketch(family, null, minima);
+    }
+
+    // One-permutation sketch: one hash per shingle, densified when the signature is read
+    public static MinHashSketch onePermutation(OnePermutationHashing oph) {
+        return new MinHashSketch(null, oph, oph.newBins());
+    }
+
+    // A fresh, empty sketch using the same hashing
+    public MinHashSketch emptyCopy() {
+        return family != null ? kHash(family) : onePermutation(oph);
+    }
+
+    @Override
+    public void accept(long shingle) {
+        if (family != null) {
+            family.updateMinima(shingle, minima);
+        } else {
+            oph.add(shingle, minima);
+        }
+    }
+
+    // Fold another sketch of the same hashing into this one
+    public void merge(MinHashSketch other) {
+        if (other.family != family || other.oph != oph) {
+            throw new IllegalArgumentException("Sketches use different hashing and cannot be merged");
+        }
+        for (int i = 0; i < minima.length; i++) {
+            minima[i] = Math.min(minima[i], other.minima[i]);
+        }
+    }
+
+    // Signature of everything seen so far; one-permutation bins are densified on a copy
+    public long[] signature() {
+        long[] signature = minima.clone();
+        if (oph != null) {
+            oph.densify(signature);
+        }
+        return signature;
+    }
+
+    // Sketch the character k-grams of a channel in one streaming pass
+    public static MinHashSketch sketch(ReadableByteChannel channel, Charset charset, int k,
+                                       MinHashSketch sketch) throws IOException {
+        new Shingler().characterKGrams(k, sketch).consume(channel, charset);
+        return sketch;
+    }
+
+    // Sketch a file as `segments` byte ranges in parallel and merge the results. Each
+    // segment covers the k-grams that start inside it: segment boundaries are moved to
+    // a character start, and every segment reads k - 1 chars past its end.
+    public static MinHashSketch sketchFile(Path path, int k, MinHashSketch empty,
+                                           int segments, Executor executor) throws IOException {
+        Charset charset = Charset.defaultCharset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean splittable = charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1;
+            if (segments <= 1 || !splittable || size < (long) segments * k * 4) {
+                return sketch(channel, charset, k, empty);
+            }
+
+            long[] bounds = new long[segments + 1];
+            bounds[segments] = size;
+            for (int s = 1; s < segments; s++) {
+                bounds[s] = charStart(channel, Math.max(bounds[s - 1], size * s / segments), size, charset);
+            }
+
+            List<CompletableFuture<MinHashSketch>> parts = new ArrayList<>();
+            for (int s = 0; s < segments; s++) {
+                long from = bounds[s], to = bounds[s + 1];
+                MinHashSketch part = s == 0 ? empty : empty.emptyCopy();
+                parts.add(CompletableFuture.supplyAsync(() -> sketchSegment(channel, charset, from, to, k, part), executor));
+            }
+            MinHashSketch result = parts.get(0).join();
+            for (int s = 1; s < segments; s++) {
+                result.merge(parts.get(s).join());
+            }
+            return result;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static MinHashSketch sketchSegment(FileChannel channel, Charset charset, long from, long to,
+                                               int k, MinHashSketch sketch) {
+        try {
+            Shingler shingler = new Shingler().characterKGrams(k, sketch);
+            shingler.feed(new RangeChannel(channel, from, to), charset, Long.MAX_VALUE);
+            long tailBytes = (long) (k - 1) * 4;
+            shingler.feed(new RangeChannel(channel, to, Math.min(channel.size(), to + tailBytes)), charset, k - 1);
+            return sketch;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // First position at or after `position` that does not fall inside a UTF-8 sequence
+    private static long charStart(FileChannel channel, long position, long size, Charset charset) throws IOException {
+        if (!charset.equals(StandardCharsets.UTF_8)) {
+            return position;
+        }
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (position < size) {
+            one.clear();
+            channel.read(one, position);
+            if ((one.get(0) & 0xC0) != 0x80) {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    // Positional reads of [from, to) of a shared FileChannel
+    private static final class RangeChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private final long to;
+        private long position;
+
+        RangeChannel(FileChannel channel, long from, long to) {
+            this.channel = channel;
+            this.position = from;
+            this.to = to;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            if (position >= to) {
+                return -1;
+            }
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), to - position));
+            int read = channel.read(buffer, position);
+            buffer.limit(limit);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,13 +1,27 @@
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.*;
 
 public class MinHashing {
-    private static final int MAX_HASH = 10000;
+    private static final long SEED = 42L;
     
-    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+    public static void main(String[] args) throws IOException {
+        // --hash=murmur|derived picks the k-hash family, --signature=classic|oph|both the signature scheme;
+        // --streaming sketches each file while reading it, in --segments=N parallel byte ranges
+        Options options = Options.parse(args);
+        String familyName = options.get("hash", "murmur");
+        String mode = options.get("signature", "classic");
+        boolean classic = mode.equals("classic") || mode.equals("both");
+        boolean onePermutation = mode.equals("oph") || mode.equals("both");
+        if (!classic && !onePermutation) {
+            throw new IllegalArgumentException("Unknown signature mode: " + mode);
+        }
+        if (options.flag("streaming")) {
+            streamingEstimates(familyName, classic, onePermutation, options.getInt("segments", 1));
+            return;
+        }
+
         // File paths
         String[] docNames = {"D1.txt", "D2.txt"};
         Map<String, String> documents = new HashMap<>();
@@ -28,13 +42,50 @@ public class MinHashing {
         int[] tValues = {20, 60, 150, 300, 600};
         
         // Compute Min-Hash signatures and Jaccard estimates
-        System.out.println("Min-Hash Jaccard Similarity Estimates:");
+        System.out.println("Min-Hash Jaccard Similarity Estimates (" + familyName + " hashing):");
         for (int t : tValues) {
-            List<Integer> sigD1 = minHashSignature(char3grams.get("D1.txt"), t);
-            List<Integer> sigD2 = minHashSignature(char3grams.get("D2.txt"), t);
-            double jaccardEstimate = minHashJaccard(sigD1, sigD2);
-            
-            System.out.printf("t = %d: Jaccard Similarity = %.4f\n", t, jaccardEstimate);
+            if (classic) {
+                HashFamily family = HashFamily.forName(familyName, t, SEED);
+                long[] sigD1 = minHashSignature(char3grams.get("D1.txt"), family);
+                long[] sigD2 = minHashSignature(char3grams.get("D2.txt"), family);
+                double jaccardEstimate = minHashJaccard(sigD1, sigD2);
+
+                System.out.printf("t = %d: Jaccard Similarity = %.4f\n", t, jaccardEstimate);
+            }
+            if (onePermutation) {
+                OnePermutationHashing oph = new OnePermutationHashing(t, SEED);
+                long[] sigD1 = onePermutationSignature(char3grams.get("D1.txt"), oph);
+                long[] sigD2 = onePermutationSignature(char3grams.get("D2.txt"), oph);
+                double jaccardEstimate = minHashJaccard(sigD1, sigD2);
+
+                System.out.printf("t = %d: Jaccard Similarity (one permutation) = %.4f\n", t, jaccardEstimate);
+            }
+        }
+    }
+    
+    // Same estimates without loading the documents: every 3-gram hash goes straight into running minima
+    private static void streamingEstimates(String familyName, boolean classic, boolean onePermutation,
+                                           int segments) throws IOException {
+        int[] tValues = {20, 60, 150, 300, 600};
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, segments));
+        try {
+            System.out.println("Streaming Min-Hash Jaccard Similarity Estimates (" + familyName + " hashing):");
+            for (int t : tValues) {
+                if (classic) {
+                    HashFamily family = HashFamily.forName(familyName, t, SEED);
+                    long[] sigD1 = MinHashSketch.sketchFile(Paths.get("D1.txt"), 3, MinHashSketch.kHash(family), segments, executor).signature();
+                    long[] sigD2 = MinHashSketch.sketchFile(Paths.get("D2.txt"), 3, MinHashSketch.kHash(family), segments, executor).signature();
+                    System.out.printf("t = %d: Jaccard Similarity = %.4f\n", t, minHashJaccard(sigD1, sigD2));
+                }
+                if (onePermutation) {
+                    OnePermutationHashing oph = new OnePermutationHashing(t, SEED);
+                    long[] sigD1 = MinHashSketch.sketchFile(Paths.get("D1.txt"), 3, MinHashSketch.onePermutation(oph), segments, executor).signature();
+                    long[] sigD2 = MinHashSketch.sketchFile(Paths.get("D2.txt"), 3, MinHashSketch.onePermutation(oph), segments, executor).signature();
+                    System.out.printf("t = %d: Jaccard Similarity (one permutation) = %.4f\n", t, minHashJaccard(sigD1, sigD2));
+                }
+            }
+        } finally {
+            executor.shutdown();
         }
     }
     
@@ -47,36 +98,35 @@ public class MinHashing {
         return kgrams;
     }
     
-    // Create a hash function
-    private static int hashFunction(String value, int seed) throws NoSuchAlgorithmException {
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        md.update((seed + value).getBytes());
-        byte[] digest = md.digest();
-        int hash = ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16) | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
-        return Math.abs(hash) % MAX_HASH;
+    // Compute Min-Hash signature: hash each k-gram to a 64-bit key once, then
+    // let the family update all t minima for that key
+    static long[] minHashSignature(Set<String> kgramSet, HashFamily family) {
+        long[] signature = new long[family.size()];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (String kgram : kgramSet) {
+            family.updateMinima(HashFamily.hashChars(kgram), signature);
+        }
+        return signature;
     }
     
-    // Compute Min-Hash signature
-    private static List<Integer> minHashSignature(Set<String> kgramSet, int numHashes) throws NoSuchAlgorithmException {
-        List<Integer> signature = new ArrayList<>();
-        for (int i = 0; i < numHashes; i++) {
-            int minHash = Integer.MAX_VALUE;
-            for (String kgram : kgramSet) {
-                minHash = Math.min(minHash, hashFunction(kgram, i));
-            }
-            signature.add(minHash);
+    // Compute a one-permutation signature: one hash per k-gram, then densify the empty bins
+    static long[] onePermutationSignature(Set<String> kgramSet, OnePermutationHashing oph) {
+        long[] bins = oph.newBins();
+        for (String kgram : kgramSet) {
+            oph.add(HashFamily.hashChars(kgram), bins);
         }
-        return signature;
+        oph.densify(bins);
+        return bins;
     }
     
     // Compute Min-Hash Jaccard similarity
-    private static double minHashJaccard(List<Integer> sig1, List<Integer> sig2) {
+    static double minHashJaccard(long[] sig1, long[] sig2) {
         int matches = 0;
-        for (int i = 0; i < sig1.size(); i++) {
-            if (sig1.get(i).equals(sig2.get(i))) {
+        for (int i = 0; i < sig1.length; i++) {
+            if (sig1[i] == sig2[i]) {
                 matches++;
             }
         }
-        return (double) matches / sig1.size();
+        return (double) matches / sig1.length;
     }
 }
@@ -0,0 +1,104 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+// MinHash signatures of UserItemMatrix rows, shared by the MovieLens tools. All
+// hashing is derived from an explicit seed, and signatures can be cached in a
+// SignatureFile that later runs reopen instead of recomputing.
+final class MovieLensSignatures {
+    private MovieLensSignatures() {
+    }
+
+    // "--signature=classic|oph|both": k-hash MinHash, one-permutation hashing, or both for comparison;
+    // --weighted always uses weighted MinHash
+    static List<String> signatureModes(Options options) {
+        if (options.flag("weighted")) {
+            return List.of("weighted");
+        }
+        String mode = options.get("signature", "classic");
+        switch (mode) {
+            case "classic":
+            case "oph":
+                return List.of(mode);
+            case "both":
+                return List.of("classic", "oph");
+            default:
+                throw new IllegalArgumentException("Unknown signature mode: " + mode);
+        }
+    }
+
+    // Signatures of all matrix rows; mode is "classic" (t universal hashes mod 2^61 - 1), "oph"
+    // (one permutation) or "weighted" (consistent weighted sampling over the ratings)
+    static SignatureMatrix generate(UserItemMatrix matrix, String mode, int numHashes, long seed) {
+        try (Metrics.Scope phase = Metrics.phase("sign")) {
+            return sign(matrix, mode, numHashes, seed);
+        }
+    }
+
+    private static SignatureMatrix sign(UserItemMatrix matrix, String mode, int numHashes, long seed) {
+        if (mode.equals("weighted")) {
+            return new WeightedMinHash(numHashes, seed).build(matrix);
+        }
+        if (!mode.equals("oph")) {
+            return new SignatureBuilder(numHashes, seed).build(matrix);
+        }
+        OnePermutationHashing oph = new OnePermutationHashing(numHashes, seed);
+        SignatureMatrix signatures = new SignatureMatrix(matrix.numUsers(), numHashes);
+        IntStream.range(0, matrix.numUsers())
+                .parallel()
+                .forEach(row -> signatures.setRow(row, oph.signature(matrix.movieIds(), matrix.start(row), matrix.end(row))));
+        return signatures;
+    }
+
+    // Reopen the cached file if it matches the matrix, otherwise build the signatures and write a new one
+    static SignatureFile openOrWrite(Path path, UserItemMatrix matrix, String mode,
+                                     int numHashes, int r, int b, long seed) throws IOException {
+        if (Files.exists(path)) {
+            SignatureFile file = SignatureFile.open(path);
+            if (matches(file, matrix, mode, numHashes, r, b, seed)) {
+                return file;
+            }
+            file.close();
+        }
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        SignatureMatrix signatures = generate(matrix, mode, numHashes, seed);
+        try (SignatureFile.Writer writer = SignatureFile.create(path, scheme(mode), numHashes, r, b, new long[]{seed},
+                matrix.checksum())) {
+            for (int row = 0; row < matrix.numUsers(); row++) {
+                writer.append(matrix.userId(row), signatures.values(), signatures.offset(row));
+            }
+        }
+        return SignatureFile.open(path);
+    }
+
+    private static int scheme(String mode) {
+        switch (mode) {
+            case "oph":
+                return SignatureFile.SCHEME_ONE_PERMUTATION;
+            case "weighted":
+                return SignatureFile.SCHEME_WEIGHTED;
+            default:
+                return SignatureFile.SCHEME_UNIVERSAL;
+        }
+    }
+
+    private static boolean matches(SignatureFile file, UserItemMatrix matrix, String mode,
+                                   int numHashes, int r, int b, long seed) {
+        if (file.scheme() != scheme(mode) || file.numHashes() != numHashes || file.r() != r || file.b() != b
+                || file.numRows() != matrix.numUsers() || file.seeds()[0] != seed
+                || file.contentChecksum() != matrix.checksum()) {
+            return false;
+        }
+        for (int row = 0; row < matrix.numUsers(); row++) {
+            if (file.userId(row) != matrix.userId(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+import java.util.*;
+
+// One-permutation MinHash with optimal densification (Shrivastava, 2017).
+// Each element is hashed once and only competes for the minimum of its own bin,
+// so a t-bin signature costs O(|set| + t) instead of O(t * |set|). Empty bins then
+// borrow the value of a non-empty bin chosen by a bin-specific probe sequence,
+// which keeps Pr[sig1[i] == sig2[i]] equal to the Jaccard similarity.
+public class OnePermutationHashing {
+    static final long EMPTY = Long.MAX_VALUE;
+
+    private final int numBins;
+    private final long seed;
+
+    public OnePermutationHashing(int numBins, long seed) {
+        if (numBins <= 0) {
+            throw new IllegalArgumentException("Number of bins must be positive: " + numBins);
+        }
+        this.numBins = numBins;
+        this.seed = seed;
+    }
+
+    public int numBins() {
+        return numBins;
+    }
+
+    // Fresh bins with every slot empty
+    public long[] newBins() {
+        long[] bins = new long[numBins];
+        Arrays.fill(bins, EMPTY);
+        return bins;
+    }
+
+    // Route the key to its bin and keep the bin minimum
+    public void add(long key, long[] bins) {
+        long h = HashFamily.mix64(key ^ seed);
+        int bin = (int) (((h >>> 32) * numBins) >>> 32);
+        if (h < bins[bin]) {
+            bins[bin] = h;
+        }
+    }
+
+    // Fill empty bins in place; a set with no elements stays all-empty
+    public void densify(long[] bins) {
+        boolean[] filled = new boolean[numBins];
+        int nonEmpty = 0;
+        for (int i = 0; i < numBins; i++) {
+            if (bins[i] != EMPTY) {
+                filled[i] = true;
+                nonEmpty++;
+            }
+        }
+        if (nonEmpty == 0 || nonEmpty == numBins) {
+            return;
+        }
+        for (int i = 0; i < numBins; i++) {
+            if (filled[i]) {
+                continue;
+            }
+            for (long attempt = 1; ; attempt++) {
+                long probe = HashFamily.mix64(seed + ((long) i << 32) + attempt);
+                int donor = (int) (((probe >>> 32) * numBins) >>> 32);
+                if (filled[donor]) {
+                    bins[i] = bins[donor];
+                    break;
+                }
+            }
+        }
+    }
+
+    // Densified signature of items[from, to), folded to int for the MovieLens tools
+    public int[] signature(int[] items, int from, int to) {
+        long[] bins = newBins();
+        for (int i = from; i < to; i++) {
+            add(items[i], bins);
+        }
+        densify(bins);
+        int[] signature = new int[numBins];
+        for (int i = 0; i < numBins; i++) {
+            signature[i] = (int) bins[i];
+        }
+        return signature;
+    }
+}
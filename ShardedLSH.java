@@ -0,0 +1,266 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.file.*;
+import java.util.*;
+
+// LSH banding split across worker JVMs on one machine, coordinated through files in a
+// work directory, so no process needs every signature or every bucket in its heap.
+//
+//   1. The coordinator partitions the users by row across N shards and writes each
+//      shard's ratings as "row,movieId,rating" lines, with the global row as user id.
+//   2. N map workers each sign their shard into a SignatureFile (reused only when its
+//      parameters and content checksum match the shard's ratings) and route every (band, band key, row) to the worker owning that band
+//      key, one file per (map shard, owner).
+//   3. N reduce workers each gather the records routed to them, group them into the
+//      same buckets as BandingEngine.candidatePairs, and write their sorted,
+//      de-duplicated candidate pairs.
+//   4. The coordinator merges the shards' pairs, removing pairs found by several.
+//
+// Signatures and band keys are the ones the single-JVM path computes, so the result is
+// the same set of candidate pairs, over the coordinator's matrix rows.
+public class ShardedLSH {
+    private final Path workDir;
+    private final String mode;
+    private final int numHashes;
+    private final int r;
+    private final int b;
+    private final long seed;
+    private final int shards;
+    private final List<String> jvmOptions;
+
+    public ShardedLSH(Path workDir, String mode, int numHashes, int r, int b, long seed, int shards,
+                      List<String> jvmOptions) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("Number of shards must be positive: " + shards);
+        }
+        if (r <= 0 || b <= 0 || r * b > numHashes) {
+            throw new IllegalArgumentException("Need r * b <= numHashes, got r=" + r + ", b=" + b + ", t=" + numHashes);
+        }
+        this.workDir = workDir;
+        this.mode = mode;
+        this.numHashes = numHashes;
+        this.r = r;
+        this.b = b;
+        this.seed = seed;
+        this.shards = shards;
+        this.jvmOptions = jvmOptions;
+    }
+
+    // Worker entry point: --role=map|reduce --dir=DIR --shard=I --shards=N --mode=M --hashes=T --r=R --b=B --seed=S
+    public static void main(String[] args) throws IOException {
+        Options options = Options.parse(args);
+        ShardedLSH job = new ShardedLSH(Paths.get(options.get("dir", ".")), options.get("mode", "classic"),
+                options.getInt("hashes", 100), options.getInt("r", 5), options.getInt("b", 20),
+                options.getLong("seed", 42L), options.getInt("shards", 1), List.of());
+        int shard = options.getInt("shard", 0);
+        String role = options.get("role", "");
+        switch (role) {
+            case "map":
+                job.map(shard);
+                break;
+            case "reduce":
+                job.reduce(shard);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown worker role: " + role);
+        }
+    }
+
+    // Sorted, de-duplicated candidate pairs over the matrix rows, computed by the worker processes
+    public long[] candidatePairs(UserItemMatrix matrix) throws IOException, InterruptedException {
+        Files.createDirectories(workDir);
+        long start = System.nanoTime();
+        writeShards(matrix);
+        long partitioned = System.nanoTime();
+        runWorkers("map");
+        long mapped = System.nanoTime();
+        runWorkers("reduce");
+        long reduced = System.nanoTime();
+
+        long[] merged = new long[0];
+        for (int shard = 0; shard < shards; shard++) {
+            merged = BandingEngine.mergeSorted(merged, readPairs(pairsFile(shard)));
+        }
+        System.err.printf("Sharded LSH over %d workers: partition %.0f ms, map %.0f ms, reduce %.0f ms, merge %.0f ms%n",
+                shards, (partitioned - start) / 1e6, (mapped - partitioned) / 1e6, (reduced - mapped) / 1e6,
+                (System.nanoTime() - reduced) / 1e6);
+        return merged;
+    }
+
+    // Rows go to shards round-robin, so heavy and light users spread evenly
+    private void writeShards(UserItemMatrix matrix) throws IOException {
+        for (int shard = 0; shard < shards; shard++) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(ratingsFile(shard)))) {
+                out.println("row,movieId,rating");
+                for (int row = shard; row < matrix.numUsers(); row += shards) {
+                    for (int m = matrix.start(row); m < matrix.end(row); m++) {
+                        out.print(row);
+                        out.print(',');
+                        out.print(matrix.movieIds()[m]);
+                        out.print(',');
+                        out.println(new BigDecimal(Float.toString(matrix.ratings()[m])).toPlainString());
+                    }
+                }
+                if (out.checkError()) {
+                    throw new IOException("Failed to write " + ratingsFile(shard));
+                }
+            }
+        }
+    }
+
+    // Start one JVM per shard with the same classpath and wait for all of them. If one fails,
+    // or the wait is interrupted, the workers still running are destroyed before returning
+    private void runWorkers(String role) throws IOException, InterruptedException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> workers = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(jvmOptions);
+                command.addAll(List.of("-cp", System.getProperty("java.class.path"), ShardedLSH.class.getName(),
+                        "--role=" + role, "--dir=" + workDir.toAbsolutePath(), "--shard=" + shard, "--shards=" + shards,
+                        "--mode=" + mode, "--hashes=" + numHashes, "--r=" + r, "--b=" + b, "--seed=" + seed));
+                workers.add(new ProcessBuilder(command).inheritIO().start());
+            }
+            for (int shard = 0; shard < shards; shard++) {
+                int exit = workers.get(shard).waitFor();
+                if (exit != 0) {
+                    throw new IOException(role + " worker for shard " + shard + " exited with code " + exit);
+                }
+            }
+        } finally {
+            for (Process worker : workers) {
+                if (worker.isAlive()) {
+                    worker.destroyForcibly();
+                }
+            }
+            // Wait them out, so their files are closed before the caller cleans up
+            for (Process worker : workers) {
+                worker.onExit().join();
+            }
+        }
+    }
+
+    // Sign this shard's users and route each band key to its owner as (band, key, row) records.
+    // A shard file left in a persistent work directory by an earlier run over other ratings
+    // fails openOrWrite's content checksum and is rewritten
+    void map(int shard) throws IOException {
+        UserItemMatrix matrix = UserItemMatrix.load(ratingsFile(shard).toString());
+        SignatureMatrix signatures;
+        try (SignatureFile file = MovieLensSignatures.openOrWrite(workDir.resolve("shard-" + shard + ".lsh"),
+                matrix, mode, numHashes, r, b, seed)) {
+            signatures = file.signatures();
+        }
+
+        DataOutputStream[] routes = new DataOutputStream[shards];
+        try {
+            for (int owner = 0; owner < shards; owner++) {
+                routes[owner] = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(routeFile(shard, owner)), 1 << 16));
+            }
+            for (int row = 0; row < matrix.numUsers(); row++) {
+                for (int band = 0; band < b; band++) {
+                    long key = BandingEngine.bandKey(signatures.values(), signatures.offset(row) + band * r, r);
+                    DataOutputStream route = routes[owner(band, key)];
+                    route.writeInt(band);
+                    route.writeLong(key);
+                    route.writeInt(matrix.userId(row)); // The global row
+                }
+            }
+        } finally {
+            for (DataOutputStream route : routes) {
+                if (route != null) {
+                    route.close();
+                }
+            }
+        }
+    }
+
+    // Group the records routed here into buckets and write their pairs
+    void reduce(int shard) throws IOException {
+        LongList keys = new LongList();
+        IntList rows = new IntList();
+        for (int mapper = 0; mapper < shards; mapper++) {
+            Path file = routeFile(mapper, shard);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                long records = Files.size(file) / (Integer.BYTES + Long.BYTES + Integer.BYTES);
+                for (long i = 0; i < records; i++) {
+                    int band = in.readInt();
+                    keys.add(bucketKey(band, in.readLong()));
+                    rows.add(in.readInt());
+                }
+            }
+        }
+
+        // Chain the records of each bucket, as BandingEngine.bandCandidates does for one band
+        int n = rows.size();
+        int capacity = Integer.highestOneBit(Math.max(4, 2 * n - 1)) << 1;
+        int mask = capacity - 1;
+        long[] slotKeys = new long[capacity];
+        int[] heads = new int[capacity];
+        int[] next = new int[n];
+        Arrays.fill(heads, -1);
+        for (int i = 0; i < n; i++) {
+            long key = keys.get(i);
+            int slot = (int) key & mask;
+            while (heads[slot] != -1 && slotKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            slotKeys[slot] = key;
+            next[i] = heads[slot];
+            heads[slot] = i;
+        }
+        LongList pairs = new LongList();
+        for (int slot = 0; slot < capacity; slot++) {
+            for (int a = heads[slot]; a != -1; a = next[a]) {
+                for (int c = next[a]; c != -1; c = next[c]) {
+                    pairs.add(BandingEngine.pairKey(rows.get(a), rows.get(c)));
+                }
+            }
+        }
+
+        long[] sorted = pairs.toArray();
+        Arrays.sort(sorted);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(pairsFile(shard)), 1 << 16))) {
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    out.writeLong(sorted[i]);
+                }
+            }
+        }
+    }
+
+    private static long[] readPairs(Path file) throws IOException {
+        long[] pairs = new long[Math.toIntExact(Files.size(file) / Long.BYTES)];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i] = in.readLong();
+            }
+        }
+        return pairs;
+    }
+
+    // Band keys are already mixed; the band is folded in so equal keys of different bands part
+    private int owner(int band, long key) {
+        return (int) Long.remainderUnsigned(bucketKey(band, key), shards);
+    }
+
+    // One key per (band, band key); distinct buckets sharing it would merge, at 2^-64 per pair
+    private static long bucketKey(int band, long key) {
+        return HashFamily.mix64(key + band * 0x9e3779b97f4a7c15L);
+    }
+
+    private Path ratingsFile(int shard) {
+        return workDir.resolve("shard-" + shard + ".csv");
+    }
+
+    private Path routeFile(int mapper, int owner) {
+        return workDir.resolve("route-" + mapper + "-to-" + owner + ".bin");
+    }
+
+    private Path pairsFile(int shard) {
+        return workDir.resolve("pairs-" + shard + ".bin");
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.LongConsumer;
+
+// Streaming shingler: chars are lower-cased as they arrive and every character k-gram
+// and word k-gram is reported as a 64-bit hash, without creating a String per k-gram.
+// Character k-grams use a polynomial rolling hash over the last k chars; words are
+// maximal runs of non-whitespace chars (the \s class), each hashed once, and word
+// k-grams roll over the last k word hashes. Equal k-grams always get equal hashes,
+// wherever they occur in the stream.
+public class Shingler {
+    private static final long BASE = 0x100000001b3L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final List<CharLane> charLanes = new ArrayList<>();
+    private final List<WordLane> wordLanes = new ArrayList<>();
+
+    private long wordHash = FNV_OFFSET;
+    private boolean inWord;
+
+    // Report the hash of every character k-gram to the sink
+    public Shingler characterKGrams(int k, LongConsumer sink) {
+        charLanes.add(new CharLane(k, sink));
+        return this;
+    }
+
+    // Report the hash of every word k-gram to the sink
+    public Shingler wordKGrams(int k, LongConsumer sink) {
+        wordLanes.add(new WordLane(k, sink));
+        return this;
+    }
+
+    public void accept(char c) {
+        c = Character.toLowerCase(c);
+        for (int i = 0; i < charLanes.size(); i++) {
+            charLanes.get(i).accept(c);
+        }
+        if (wordLanes.isEmpty()) {
+            return;
+        }
+        if (isWhitespace(c)) {
+            endWord();
+        } else {
+            wordHash = (wordHash ^ c) * BASE;
+            inWord = true;
+        }
+    }
+
+    public void accept(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            accept(chars[i]);
+        }
+    }
+
+    // Flush the last word; call once at the end of the document
+    public void finish() {
+        endWord();
+    }
+
+    // Decode and shingle the whole channel, then finish()
+    public void consume(ReadableByteChannel channel, Charset charset) throws IOException {
+        feed(channel, charset, Long.MAX_VALUE);
+        finish();
+    }
+
+    // Decode at most maxChars chars from the channel into the shingler, without finishing;
+    // returns the number of chars fed. Rolling state carries over between calls, so
+    // k-grams spanning two reads are still reported.
+    long feed(ReadableByteChannel channel, Charset charset, long maxChars) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        long fed = 0;
+        boolean endOfInput = false;
+        while (!endOfInput && fed < maxChars) {
+            endOfInput = channel.read(bytes) < 0;
+            bytes.flip();
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                fed += drain(chars, maxChars - fed);
+            } while (result.isOverflow() && fed < maxChars);
+            bytes.compact();
+        }
+        while (fed < maxChars && decoder.flush(chars) == CoderResult.OVERFLOW) {
+            fed += drain(chars, maxChars - fed);
+        }
+        fed += drain(chars, maxChars - fed);
+        return fed;
+    }
+
+    public void consume(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            consume(channel, Charset.defaultCharset());
+        }
+    }
+
+    private int drain(CharBuffer chars, long limit) {
+        chars.flip();
+        int length = (int) Math.min(chars.remaining(), limit);
+        accept(chars.array(), chars.arrayOffset() + chars.position(), length);
+        chars.clear();
+        return length;
+    }
+
+    private void endWord() {
+        if (!inWord) {
+            return;
+        }
+        long hash = HashFamily.mix64(wordHash);
+        for (int i = 0; i < wordLanes.size(); i++) {
+            wordLanes.get(i).accept(hash);
+        }
+        wordHash = FNV_OFFSET;
+        inWord = false;
+    }
+
+    // Same characters as the regex class \s
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    // B^(k-1), the weight of the value leaving a window of k
+    private static long leavingWeight(int k) {
+        long weight = 1;
+        for (int i = 1; i < k; i++) {
+            weight *= BASE;
+        }
+        return weight;
+    }
+
+    // Rolling hash over the last k chars
+    private static final class CharLane {
+        private final int k;
+        private final LongConsumer sink;
+        private final long leaving;
+        private final char[] window;
+        private long hash;
+        private long seen;
+
+        CharLane(int k, LongConsumer sink) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("k must be positive: " + k);
+            }
+            this.k = k;
+            this.sink = sink;
+            this.leaving = leavingWeight(k);
+            this.window = new char[k];
+        }
+
+        void accept(char c) {
+            int slot = (int) (seen % k);
+            if (seen >= k) {
+                hash -= window[slot] * leaving;
+            }
+            hash = hash * BASE + c;
+            window[slot] = c;
+            if (++seen >= k) {
+                sink.accept(HashFamily.mix64(hash ^ k));
+            }
+        }
+    }
+
+    // Rolling hash over the last k word hashes
+    private static final class WordLane {
+        private final int k;
+        private final LongConsumer sink;
+        private final long leaving;
+        private final long[] window;
+        private long hash;
+        private long seen;
+
+        WordLane(int k, LongConsumer sink) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("k must be positive: " + k);
+            }
+            this.k = k;
+            this.sink = sink;
+            this.leaving = leavingWeight(k);
+            this.window = new long[k];
+        }
+
+        void accept(long word) {
+            int slot = (int) (seen % k);
+            if (seen >= k) {
+                hash -= window[slot] * leaving;
+            }
+            hash = hash * BASE + word;
+            window[slot] = word;
+            if (++seen >= k) {
+                sink.accept(HashFamily.mix64(hash ^ ~(long) k));
+            }
+        }
+    }
+}
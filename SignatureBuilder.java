@@ -0,0 +1,92 @@
+import java.util.*;
+import java.util.stream.*;
+
+// Parallel MinHash signatures for every row of a UserItemMatrix, written into one
+// SignatureMatrix. Rows are split into blocks that run on the common ForkJoinPool;
+// within a row each item is read once and updates all t minima in one tight loop
+// over primitive arrays, instead of rescanning the row once per hash function.
+//
+// Hash i is the universal hash h_i(x) = (a_i * x + b_i) mod p with p = 2^61 - 1,
+// evaluated exactly: Math.multiplyHigh gives the upper word of the 128-bit product,
+// and 2^64 = 8 (mod p) folds it back without division. The stored value is the top
+// 32 bits of the 61-bit minimum.
+public class SignatureBuilder {
+    static final long MERSENNE_61 = (1L << 61) - 1;
+    private static final int BLOCK_ROWS = 32;
+
+    private final long[] a;
+    private final long[] b;
+
+    public SignatureBuilder(int numHashes, long seed) {
+        if (numHashes <= 0) {
+            throw new IllegalArgumentException("Number of hashes must be positive: " + numHashes);
+        }
+        long[] seeds = HashFamily.seeds(2 * numHashes, seed);
+        this.a = new long[numHashes];
+        this.b = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            a[i] = 1 + Long.remainderUnsigned(seeds[2 * i], MERSENNE_61 - 1);
+            b[i] = Long.remainderUnsigned(seeds[2 * i + 1], MERSENNE_61);
+        }
+    }
+
+    public int numHashes() {
+        return a.length;
+    }
+
+    // Signatures of all rows, in row order
+    public SignatureMatrix build(UserItemMatrix matrix) {
+        int n = matrix.numUsers();
+        int t = a.length;
+        SignatureMatrix signatures = new SignatureMatrix(n, t);
+        IntStream.range(0, (n + BLOCK_ROWS - 1) / BLOCK_ROWS)
+                .parallel()
+                .forEach(block -> {
+                    long[] minima = new long[t];
+                    for (int row = block * BLOCK_ROWS; row < Math.min(n, (block + 1) * BLOCK_ROWS); row++) {
+                        signature(matrix.movieIds(), matrix.start(row), matrix.end(row), minima,
+                                signatures.values(), signatures.offset(row));
+                    }
+                });
+        return signatures;
+    }
+
+    // Signature of items[from, to) into out[offset, offset + t), using minima as scratch
+    public void signature(int[] items, int from, int to, long[] minima, int[] out, int offset) {
+        int t = a.length;
+        Arrays.fill(minima, 0, t, Long.MAX_VALUE);
+        for (int m = from; m < to; m++) {
+            long x = items[m] & 0xFFFFFFFFL;
+            for (int i = 0; i < t; i++) {
+                minima[i] = Math.min(minima[i], hash(a[i], b[i], x));
+            }
+        }
+        for (int i = 0; i < t; i++) {
+            out[offset + i] = (int) (minima[i] >>> 29);
+        }
+    }
+
+    // Lower out[offset, offset + t) to include one more item; false if no value changed.
+    // Values compare unsigned, and an empty row is all -1, as signature() leaves it
+    public boolean update(int item, int[] out, int offset) {
+        long x = item & 0xFFFFFFFFL;
+        boolean changed = false;
+        for (int i = 0; i < a.length; i++) {
+            int value = (int) (hash(a[i], b[i], x) >>> 29);
+            if (Integer.compareUnsigned(value, out[offset + i]) < 0) {
+                out[offset + i] = value;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // (a * x + b) mod 2^61 - 1 for a, b < 2^61 and x < 2^32
+    static long hash(long a, long b, long x) {
+        long low = a * x;
+        long high = Math.multiplyHigh(a, x);
+        long h = (low & MERSENNE_61) + (low >>> 61) + (high << 3) + b;
+        h = (h & MERSENNE_61) + (h >>> 61);
+        return h >= MERSENNE_61 ? h - MERSENNE_61 : h;
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Versioned binary file holding MinHash signatures and their LSH band tables, reopened
+// with FileChannel.map so a service can answer queries without recomputing anything.
+//
+// Layout (big-endian):
+//   header   magic "LSHS", version, scheme, numHashes, r, b, numRows (long),
+//            signatureOffset (long), bandOffset (long), numSeeds, contentChecksum (long,
+//            from version 2), seeds (long[numSeeds])
+//   rows     numRows fixed-width records: userId, signature[numHashes] (ints)
+//   bands    b tables of numRows (key long, row int) entries sorted by key
+//
+// Rows are streamed to disk as they are appended. Band tables are built at close()
+// one band at a time from the mapped rows, so only O(numRows) entries are on the heap.
+// contentChecksum identifies the input the signatures were computed from (for the
+// MovieLens tools, UserItemMatrix.checksum()); version 1 files read it as 0.
+public class SignatureFile implements Closeable {
+    static final int MAGIC = 0x4C534853; // "LSHS"
+    static final int VERSION = 2;
+    static final int SCHEME_LINEAR = 0; // (a * movie + b) % 1682, written by older versions
+    static final int SCHEME_ONE_PERMUTATION = 1;
+    static final int SCHEME_UNIVERSAL = 2; // SignatureBuilder, (a * x + b) mod 2^61 - 1
+    static final int SCHEME_WEIGHTED = 3; // WeightedMinHash over the ratings
+
+    private static final int FIXED_HEADER_V1 = 4 * 6 + 8 * 3 + 4;
+    private static final int FIXED_HEADER = FIXED_HEADER_V1 + 8;
+    private static final int BAND_ENTRY = Long.BYTES + Integer.BYTES;
+    private static final long MAX_REGION = 1L << 30;
+
+    private final FileChannel channel;
+    private final int scheme;
+    private final int numHashes;
+    private final int r;
+    private final int b;
+    private final long numRows;
+    private final long contentChecksum;
+    private final long[] seeds;
+    private final MappedRegion rows;
+    private final MappedRegion[] bands;
+
+    private SignatureFile(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_V1);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a signature file");
+        }
+        int version = header.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported signature file version " + version);
+        }
+        scheme = header.getInt();
+        numHashes = header.getInt();
+        r = header.getInt();
+        b = header.getInt();
+        numRows = header.getLong();
+        long signatureOffset = header.getLong();
+        long bandOffset = header.getLong();
+        int numSeeds = header.getInt();
+        int fixedHeader = version == 1 ? FIXED_HEADER_V1 : FIXED_HEADER;
+        if (version == 1) {
+            contentChecksum = 0;
+        } else {
+            ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES);
+            readFully(channel, checksum, FIXED_HEADER_V1);
+            contentChecksum = checksum.getLong(0);
+        }
+
+        ByteBuffer seedBuffer = ByteBuffer.allocate(numSeeds * Long.BYTES);
+        readFully(channel, seedBuffer, fixedHeader);
+        seedBuffer.flip();
+        seeds = new long[numSeeds];
+        seedBuffer.asLongBuffer().get(seeds);
+
+        rows = new MappedRegion(channel, signatureOffset, numRows, rowBytes(numHashes));
+        bands = new MappedRegion[b];
+        for (int band = 0; band < b; band++) {
+            bands[band] = new MappedRegion(channel, bandOffset + band * numRows * BAND_ENTRY, numRows, BAND_ENTRY);
+        }
+    }
+
+    public static SignatureFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SignatureFile(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static Writer create(Path path, int scheme, int numHashes, int r, int b, long[] seeds) throws IOException {
+        return create(path, scheme, numHashes, r, b, seeds, 0);
+    }
+
+    public static Writer create(Path path, int scheme, int numHashes, int r, int b, long[] seeds,
+                                long contentChecksum) throws IOException {
+        return new Writer(path, scheme, numHashes, r, b, seeds, contentChecksum);
+    }
+
+    public int scheme() {
+        return scheme;
+    }
+
+    public int numHashes() {
+        return numHashes;
+    }
+
+    public int r() {
+        return r;
+    }
+
+    public int b() {
+        return b;
+    }
+
+    public long numRows() {
+        return numRows;
+    }
+
+    public long[] seeds() {
+        return seeds.clone();
+    }
+
+    public long contentChecksum() {
+        return contentChecksum;
+    }
+
+    public int userId(long row) {
+        return rows.getInt(row, 0);
+    }
+
+    public int signatureValue(long row, int hash) {
+        return rows.getInt(row, Integer.BYTES * (1 + hash));
+    }
+
+    public int[] signature(long row) {
+        int[] signature = new int[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            signature[i] = signatureValue(row, i);
+        }
+        return signature;
+    }
+
+    // Copy all signatures onto the heap, in row order
+    public SignatureMatrix signatures() {
+        if (numRows > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many rows to copy onto the heap: " + numRows);
+        }
+        SignatureMatrix signatures = new SignatureMatrix((int) numRows, numHashes);
+        int[] values = signatures.values();
+        for (int row = 0, k = 0; row < numRows; row++) {
+            for (int i = 0; i < numHashes; i++) {
+                values[k++] = signatureValue(row, i);
+            }
+        }
+        return signatures;
+    }
+
+    // Distinct rows sharing at least one band bucket with the query signature
+    public int[] candidates(int[] querySignature) {
+        IntList candidates = new IntList(64);
+        for (int band = 0; band < b; band++) {
+            long key = BandingEngine.bandKey(querySignature, band * r, r);
+            for (long i = lowerBound(band, key); i < numRows && bands[band].getLong(i, 0) == key; i++) {
+                candidates.add(bands[band].getInt(i, Long.BYTES));
+            }
+        }
+        int[] rowsFound = candidates.toArray();
+        Arrays.sort(rowsFound);
+        int n = 0;
+        for (int i = 0; i < rowsFound.length; i++) {
+            if (i == 0 || rowsFound[i] != rowsFound[i - 1]) {
+                rowsFound[n++] = rowsFound[i];
+            }
+        }
+        return Arrays.copyOf(rowsFound, n);
+    }
+
+    // All candidate pairs, read from the stored band tables, as sorted (rowA << 32 | rowB) keys
+    public long[] candidatePairs() {
+        try (Metrics.Scope phase = Metrics.phase("band")) {
+            return readCandidatePairs();
+        }
+    }
+
+    private long[] readCandidatePairs() {
+        long[] merged = new long[0];
+        for (int band = 0; band < b; band++) {
+            LongList pairs = new LongList();
+            long start = 0;
+            while (start < numRows) {
+                long key = bands[band].getLong(start, 0);
+                long end = start + 1;
+                while (end < numRows && bands[band].getLong(end, 0) == key) {
+                    end++;
+                }
+                if (Metrics.ENABLED) {
+                    Metrics.bucket(band, key, (int) (end - start), bands[band].getInt(start, Long.BYTES));
+                }
+                for (long i = start; i < end; i++) {
+                    for (long j = i + 1; j < end; j++) {
+                        pairs.add(BandingEngine.pairKey(bands[band].getInt(i, Long.BYTES), bands[band].getInt(j, Long.BYTES)));
+                    }
+                }
+                start = end;
+            }
+            long[] bandPairs = pairs.toArray();
+            Metrics.bandCandidates(band, bandPairs.length);
+            Arrays.sort(bandPairs);
+            merged = BandingEngine.mergeSorted(merged, bandPairs);
+        }
+        return merged;
+    }
+
+    private long lowerBound(int band, long key) {
+        long low = 0, high = numRows;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (bands[band].getLong(mid, 0) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static int rowBytes(int numHashes) {
+        return Integer.BYTES * (1 + numHashes);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated signature file");
+            }
+        }
+    }
+
+    // Streams rows to disk, then writes the band tables and patches the header on close
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private final int scheme;
+        private final int numHashes;
+        private final int r;
+        private final int b;
+        private final long[] seeds;
+        private final long contentChecksum;
+        private final long signatureOffset;
+        private long numRows;
+        private boolean closed;
+
+        private Writer(Path path, int scheme, int numHashes, int r, int b, long[] seeds,
+                       long contentChecksum) throws IOException {
+            if (r < 0 || b < 0 || r * b > numHashes) {
+                throw new IllegalArgumentException("Need r * b <= numHashes, got r=" + r + ", b=" + b + ", t=" + numHashes);
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+            this.scheme = scheme;
+            this.numHashes = numHashes;
+            this.r = r;
+            this.b = b;
+            this.seeds = seeds.clone();
+            this.contentChecksum = contentChecksum;
+            this.signatureOffset = FIXED_HEADER + (long) seeds.length * Long.BYTES;
+            writeHeader(0, 0);
+            channel.position(signatureOffset);
+        }
+
+        public void append(int userId, int[] signature) throws IOException {
+            append(userId, signature, 0);
+        }
+
+        // Append the numHashes values starting at signatures[offset], e.g. one row of a SignatureMatrix
+        public void append(int userId, int[] signatures, int offset) throws IOException {
+            if (signatures.length - offset < numHashes) {
+                throw new IllegalArgumentException("Signature has " + (signatures.length - offset) + " values, need " + numHashes);
+            }
+            if (buffer.remaining() < rowBytes(numHashes)) {
+                flush();
+            }
+            if (buffer.remaining() < rowBytes(numHashes)) {
+                writeRowDirect(userId, signatures, offset);
+                return;
+            }
+            buffer.putInt(userId);
+            for (int i = 0; i < numHashes; i++) {
+                buffer.putInt(signatures[offset + i]);
+            }
+            numRows++;
+        }
+
+        // Rows wider than the staging buffer go straight to the channel
+        private void writeRowDirect(int userId, int[] signatures, int offset) throws IOException {
+            ByteBuffer row = ByteBuffer.allocate(rowBytes(numHashes));
+            row.putInt(userId);
+            for (int i = 0; i < numHashes; i++) {
+                row.putInt(signatures[offset + i]);
+            }
+            row.flip();
+            while (row.hasRemaining()) {
+                channel.write(row);
+            }
+            numRows++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                flush();
+                long bandOffset = signatureOffset + numRows * rowBytes(numHashes);
+                MappedRegion rowRegion = new MappedRegion(channel, signatureOffset, numRows, rowBytes(numHashes));
+                channel.position(bandOffset);
+                for (int band = 0; band < b; band++) {
+                    writeBand(rowRegion, band);
+                }
+                flush();
+                writeHeader(numRows, bandOffset);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void writeBand(MappedRegion rowRegion, int band) throws IOException {
+            if (numRows > Integer.MAX_VALUE) {
+                throw new IOException("Too many rows for a band table: " + numRows);
+            }
+            int n = (int) numRows;
+            long[] keys = new long[n];
+            int[] rowIds = new int[n];
+            int[] bandValues = new int[r];
+            for (int row = 0; row < n; row++) {
+                for (int k = 0; k < r; k++) {
+                    bandValues[k] = rowRegion.getInt(row, Integer.BYTES * (1 + band * r + k));
+                }
+                keys[row] = BandingEngine.bandKey(bandValues, 0, r);
+                rowIds[row] = row;
+            }
+            radixSort(keys, rowIds);
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < BAND_ENTRY) {
+                    flush();
+                }
+                buffer.putLong(keys[i]);
+                buffer.putInt(rowIds[i]);
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void writeHeader(long rowCount, long bandOffset) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate((int) signatureOffset);
+            header.putInt(MAGIC).putInt(VERSION).putInt(scheme).putInt(numHashes).putInt(r).putInt(b);
+            header.putLong(rowCount).putLong(signatureOffset).putLong(bandOffset).putInt(seeds.length);
+            header.putLong(contentChecksum);
+            for (long seed : seeds) {
+                header.putLong(seed);
+            }
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+    }
+
+    // Sort keys (as signed longs) and carry the row ids along; LSD radix, 16 bits per pass
+    static void radixSort(long[] keys, int[] values) {
+        int n = keys.length;
+        long[] keyBuffer = new long[n];
+        int[] valueBuffer = new int[n];
+        int[] counts = new int[1 << 16];
+        for (int shift = 0; shift < 64; shift += 16) {
+            Arrays.fill(counts, 0);
+            for (long key : keys) {
+                counts[digit(key, shift)]++;
+            }
+            for (int i = 0, total = 0; i < counts.length; i++) {
+                int count = counts[i];
+                counts[i] = total;
+                total += count;
+            }
+            for (int i = 0; i < n; i++) {
+                int position = counts[digit(keys[i], shift)]++;
+                keyBuffer[position] = keys[i];
+                valueBuffer[position] = values[i];
+            }
+            System.arraycopy(keyBuffer, 0, keys, 0, n);
+            System.arraycopy(valueBuffer, 0, values, 0, n);
+        }
+    }
+
+    // Flip the sign bit on the top digit so negative keys sort first
+    private static int digit(long key, int shift) {
+        int digit = (int) (key >>> shift) & 0xFFFF;
+        return shift == 48 ? digit ^ 0x8000 : digit;
+    }
+
+    // A read-only mapping of fixed-size records, split into segments of at most 1 GiB
+    // so that no record straddles two buffers
+    static final class MappedRegion {
+        private final ByteBuffer[] segments;
+        private final long recordsPerSegment;
+        private final int recordBytes;
+
+        MappedRegion(FileChannel channel, long offset, long records, int recordBytes) throws IOException {
+            this.recordBytes = recordBytes;
+            this.recordsPerSegment = Math.max(1, MAX_REGION / recordBytes);
+            int count = (int) ((records + recordsPerSegment - 1) / recordsPerSegment);
+            segments = new ByteBuffer[count];
+            for (int s = 0; s < count; s++) {
+                long first = s * recordsPerSegment;
+                long length = Math.min(recordsPerSegment, records - first) * recordBytes;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * recordBytes, length);
+            }
+        }
+
+        int getInt(long record, int fieldOffset) {
+            return segments[(int) (record / recordsPerSegment)]
+                    .getInt((int) (record % recordsPerSegment) * recordBytes + fieldOffset);
+        }
+
+        long getLong(long record, int fieldOffset) {
+            return segments[(int) (record / recordsPerSegment)]
+                    .getLong((int) (record % recordsPerSegment) * recordBytes + fieldOffset);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+// MinHash signatures of many rows in one contiguous row-major int[]: value i of row
+// `row` is at row * numHashes + i. Bands and prefixes of a row are read in place,
+// and there is one allocation however many rows there are.
+public final class SignatureMatrix {
+    private final int numRows;
+    private final int numHashes;
+    private final int[] values;
+
+    public SignatureMatrix(int numRows, int numHashes) {
+        if ((long) numRows * numHashes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Signature matrix too large: " + numRows + " x " + numHashes);
+        }
+        this.numRows = numRows;
+        this.numHashes = numHashes;
+        this.values = new int[numRows * numHashes];
+    }
+
+    public int numRows() {
+        return numRows;
+    }
+
+    public int numHashes() {
+        return numHashes;
+    }
+
+    // Backing array; row `row` starts at offset(row)
+    public int[] values() {
+        return values;
+    }
+
+    public int offset(int row) {
+        return row * numHashes;
+    }
+
+    public int get(int row, int hash) {
+        return values[row * numHashes + hash];
+    }
+
+    // Copy of one row's signature
+    public int[] row(int row) {
+        int[] signature = new int[numHashes];
+        System.arraycopy(values, row * numHashes, signature, 0, numHashes);
+        return signature;
+    }
+
+    public void setRow(int row, int[] signature) {
+        System.arraycopy(signature, 0, values, row * numHashes, numHashes);
+    }
+}
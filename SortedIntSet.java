@@ -0,0 +1,71 @@
+import java.util.*;
+
+// Set operations on sorted, duplicate-free int[] slices, such as the CSR rows of
+// UserItemMatrix; Jaccard is computed from an allocation-free merge count, with
+// |A ∪ B| = |A| + |B| - |A ∩ B|
+public final class SortedIntSet {
+    private static final int GALLOP_RATIO = 32;
+
+    private SortedIntSet() {
+    }
+
+    // |A ∩ B| for the sorted slices a[aFrom, aTo) and b[bFrom, bTo)
+    public static int intersectionSize(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        int sizeA = aTo - aFrom, sizeB = bTo - bFrom;
+        if (sizeA == 0 || sizeB == 0) {
+            return 0;
+        }
+        if (sizeA > sizeB * GALLOP_RATIO) {
+            return gallopingIntersection(b, bFrom, bTo, a, aFrom, aTo);
+        }
+        if (sizeB > sizeA * GALLOP_RATIO) {
+            return gallopingIntersection(a, aFrom, aTo, b, bFrom, bTo);
+        }
+
+        int i = aFrom, j = bFrom;
+        int common = 0;
+        while (i < aTo && j < bTo) {
+            int x = a[i], y = b[j];
+            if (x == y) {
+                common++;
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return common;
+    }
+
+    public static double jaccard(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        int intersection = intersectionSize(a, aFrom, aTo, b, bFrom, bTo);
+        int union = (aTo - aFrom) + (bTo - bFrom) - intersection;
+        return union == 0 ? 0.0 : (double) intersection / union;
+    }
+
+    // Look up each element of the short slice in the long one, narrowing the search window as we go
+    private static int gallopingIntersection(int[] small, int sFrom, int sTo, int[] large, int lFrom, int lTo) {
+        int common = 0;
+        int low = lFrom;
+        for (int i = sFrom; i < sTo && low < lTo; i++) {
+            int target = small[i];
+            int step = 1;
+            int high = low;
+            while (high < lTo && large[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int pos = Arrays.binarySearch(large, low, Math.min(high + 1, lTo), target);
+            if (pos >= 0) {
+                common++;
+                low = pos + 1;
+            } else {
+                low = -pos - 1;
+            }
+        }
+        return common;
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.*;
+import java.util.stream.*;
+
+// The k most similar rows of every row, by MinHash signature agreement, in columnar
+// form: row i's neighbours are neighbours()[i * k .. i * k + count(i)) with their
+// scores at the same positions of scores(), best first (ties by lower row).
+//
+// Each row fills a fixed-size min-heap of (score, neighbour) kept in place in those
+// arrays, so the heap root is the k-th best score so far. Once the heap is full, a
+// comparison stops as soon as the remaining hashes cannot lift the agreement above
+// the root, which makes most comparisons against dissimilar rows short. Candidates
+// come either from LSH banding or from all other rows, compared in cache-sized tiles.
+// Rows are independent, so they run in parallel blocks with no shared state.
+public final class TopKNeighbours {
+    private static final int BLOCK_ROWS = 32;
+    private static final int TILE_ROWS = 512;
+
+    private final int k;
+    private final int[] neighbours;
+    private final float[] scores;
+    private final int[] counts;
+
+    private TopKNeighbours(int numRows, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        if ((long) numRows * k > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Top-k table too large: " + numRows + " x " + k);
+        }
+        this.k = k;
+        this.neighbours = new int[numRows * k];
+        this.scores = new float[numRows * k];
+        this.counts = new int[numRows];
+    }
+
+    // Top k of every row over all other rows, using the first numHashes values of each signature
+    public static TopKNeighbours allPairs(SignatureMatrix signatures, int numHashes, int k) {
+        int n = signatures.numRows();
+        TopKNeighbours result = new TopKNeighbours(n, k);
+        int[] values = signatures.values();
+        IntStream.range(0, (n + BLOCK_ROWS - 1) / BLOCK_ROWS)
+                .parallel()
+                .forEach(block -> {
+                    int from = block * BLOCK_ROWS;
+                    int to = Math.min(n, from + BLOCK_ROWS);
+                    // The block's signatures stay in cache while a tile of others streams past
+                    for (int tile = 0; tile < n; tile += TILE_ROWS) {
+                        for (int row = from; row < to; row++) {
+                            for (int other = tile; other < Math.min(n, tile + TILE_ROWS); other++) {
+                                if (other != row) {
+                                    result.offer(row, other, values, signatures.offset(row),
+                                            signatures.offset(other), numHashes);
+                                }
+                            }
+                        }
+                    }
+                    for (int row = from; row < to; row++) {
+                        result.sortRow(row);
+                    }
+                });
+        return result;
+    }
+
+    // Top k of every row among its LSH candidate pairs (sorted (rowA << 32 | rowB) keys)
+    public static TopKNeighbours fromCandidates(SignatureMatrix signatures, int numHashes, long[] candidatePairs, int k) {
+        int n = signatures.numRows();
+        TopKNeighbours result = new TopKNeighbours(n, k);
+
+        // Both directions of every pair as CSR adjacency; pairs are sorted, so each list ascends
+        int[] offsets = new int[n + 1];
+        for (long pair : candidatePairs) {
+            offsets[BandingEngine.left(pair) + 1]++;
+            offsets[BandingEngine.right(pair) + 1]++;
+        }
+        for (int row = 0; row < n; row++) {
+            offsets[row + 1] += offsets[row];
+        }
+        int[] adjacent = new int[offsets[n]];
+        int[] cursor = Arrays.copyOf(offsets, n);
+        for (long pair : candidatePairs) {
+            int left = BandingEngine.left(pair);
+            int right = BandingEngine.right(pair);
+            adjacent[cursor[left]++] = right;
+            adjacent[cursor[right]++] = left;
+        }
+
+        int[] values = signatures.values();
+        IntStream.range(0, (n + BLOCK_ROWS - 1) / BLOCK_ROWS)
+                .parallel()
+                .forEach(block -> {
+                    for (int row = block * BLOCK_ROWS; row < Math.min(n, (block + 1) * BLOCK_ROWS); row++) {
+                        Arrays.sort(adjacent, offsets[row], offsets[row + 1]);
+                        for (int c = offsets[row]; c < offsets[row + 1]; c++) {
+                            result.offer(row, adjacent[c], values, signatures.offset(row),
+                                    signatures.offset(adjacent[c]), numHashes);
+                        }
+                        result.sortRow(row);
+                    }
+                });
+        return result;
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public int numRows() {
+        return counts.length;
+    }
+
+    // Number of neighbours found for the row, at most k
+    public int count(int row) {
+        return counts[row];
+    }
+
+    public int neighbour(int row, int i) {
+        return neighbours[row * k + i];
+    }
+
+    public float score(int row, int i) {
+        return scores[row * k + i];
+    }
+
+    // Backing arrays; row `row` starts at row * k
+    public int[] neighbours() {
+        return neighbours;
+    }
+
+    public float[] scores() {
+        return scores;
+    }
+
+    // Compare two signatures and push `other` into row's heap if it beats the root. Rows are
+    // offered in ascending order, so an equal score never displaces an earlier neighbour
+    private void offer(int row, int other, int[] values, int sigA, int sigB, int numHashes) {
+        int base = row * k;
+        int size = counts[row];
+        // Agreement needed to enter: any when the heap has room, else more than the root's
+        int needed = size < k ? 1 : Math.round(scores[base] * numHashes) + 1;
+        int matches = 0;
+        for (int h = 0; h < numHashes; h++) {
+            if (values[sigA + h] == values[sigB + h]) {
+                matches++;
+            } else if (matches + numHashes - h - 1 < needed) {
+                return; // The remaining hashes cannot reach the root
+            }
+        }
+        if (matches < needed) {
+            return;
+        }
+        float score = (float) matches / numHashes;
+        if (size < k) {
+            siftUp(base, size, other, score);
+            counts[row] = size + 1;
+        } else {
+            siftDown(base, k, other, score);
+        }
+    }
+
+    // Insert at position `size` of the heap at base and restore the min-heap order
+    private void siftUp(int base, int size, int neighbour, float score) {
+        int i = size;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(score, neighbour, scores[base + parent], neighbours[base + parent])) {
+                break;
+            }
+            scores[base + i] = scores[base + parent];
+            neighbours[base + i] = neighbours[base + parent];
+            i = parent;
+        }
+        scores[base + i] = score;
+        neighbours[base + i] = neighbour;
+    }
+
+    // Replace the root of the heap at base and restore the min-heap order
+    private void siftDown(int base, int size, int neighbour, float score) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(scores[base + child + 1], neighbours[base + child + 1],
+                    scores[base + child], neighbours[base + child])) {
+                child++;
+            }
+            if (!worse(scores[base + child], neighbours[base + child], score, neighbour)) {
+                break;
+            }
+            scores[base + i] = scores[base + child];
+            neighbours[base + i] = neighbours[base + child];
+            i = child;
+        }
+        scores[base + i] = score;
+        neighbours[base + i] = neighbour;
+    }
+
+    // Heap order: lower score first, and among equal scores the higher row
+    private static boolean worse(float scoreA, int neighbourA, float scoreB, int neighbourB) {
+        return scoreA < scoreB || (scoreA == scoreB && neighbourA > neighbourB);
+    }
+
+    // Turn the row's heap into a best-first list by repeatedly moving the root to the end
+    private void sortRow(int row) {
+        int base = row * k;
+        for (int size = counts[row]; size > 1; size--) {
+            float rootScore = scores[base];
+            int rootNeighbour = neighbours[base];
+            siftDown(base, size - 1, neighbours[base + size - 1], scores[base + size - 1]);
+            scores[base + size - 1] = rootScore;
+            neighbours[base + size - 1] = rootNeighbour;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Compressed sparse row (CSR) view of a ratings file: the movies of user row i
+// are movieIds[offsets[i] .. offsets[i + 1]), sorted ascending and de-duplicated,
+// and ratings[k] is the rating given to movieIds[k].
+public class UserItemMatrix {
+    private static final long MAX_SEGMENT = 1L << 30;
+
+    private final int[] userIds;
+    private final int[] offsets;
+    private final int[] movieIds;
+    private final float[] ratings;
+
+    UserItemMatrix(int[] userIds, int[] offsets, int[] movieIds, float[] ratings) {
+        this.userIds = userIds;
+        this.offsets = offsets;
+        this.movieIds = movieIds;
+        this.ratings = ratings;
+    }
+
+    public int numUsers() {
+        return userIds.length;
+    }
+
+    public int numRatings() {
+        return offsets[userIds.length];
+    }
+
+    public int userId(int row) {
+        return userIds[row];
+    }
+
+    public int start(int row) {
+        return offsets[row];
+    }
+
+    public int end(int row) {
+        return offsets[row + 1];
+    }
+
+    public int size(int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    // Number of movies rated by both users, by merging the two sorted rows
+    public int overlap(int rowA, int rowB) {
+        return SortedIntSet.intersectionSize(movieIds, offsets[rowA], offsets[rowA + 1],
+                movieIds, offsets[rowB], offsets[rowB + 1]);
+    }
+
+    public double jaccard(int rowA, int rowB) {
+        return SortedIntSet.jaccard(movieIds, offsets[rowA], offsets[rowA + 1],
+                movieIds, offsets[rowB], offsets[rowB + 1]);
+    }
+
+    // Weighted Jaccard with ratings as weights: sum of min(rating) over sum of max(rating)
+    public double weightedJaccard(int rowA, int rowB) {
+        int i = offsets[rowA], iEnd = offsets[rowA + 1];
+        int j = offsets[rowB], jEnd = offsets[rowB + 1];
+        double min = 0, max = 0;
+        while (i < iEnd && j < jEnd) {
+            if (movieIds[i] < movieIds[j]) {
+                max += ratings[i++];
+            } else if (movieIds[i] > movieIds[j]) {
+                max += ratings[j++];
+            } else {
+                min += Math.min(ratings[i], ratings[j]);
+                max += Math.max(ratings[i++], ratings[j++]);
+            }
+        }
+        while (i < iEnd) {
+            max += ratings[i++];
+        }
+        while (j < jEnd) {
+            max += ratings[j++];
+        }
+        return max == 0 ? 0 : min / max;
+    }
+
+    // Sum of the row's ratings
+    public double totalRating(int row) {
+        double total = 0;
+        for (int k = offsets[row]; k < offsets[row + 1]; k++) {
+            total += ratings[k];
+        }
+        return total;
+    }
+
+    // Number of distinct movies rated by anyone
+    public int distinctMovies() {
+        int maxMovie = 0;
+        for (int movie : movieIds) {
+            maxMovie = Math.max(maxMovie, movie);
+        }
+        boolean[] rated = new boolean[maxMovie + 1];
+        int count = 0;
+        for (int movie : movieIds) {
+            if (!rated[movie]) {
+                rated[movie] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // 64-bit hash of the whole content: user ids, row offsets, movies and rating bits. A
+    // SignatureFile records it, so signatures cached from other ratings are not reused
+    public long checksum() {
+        long h = HashFamily.mix64(userIds.length * 0x9e3779b97f4a7c15L + movieIds.length);
+        for (int userId : userIds) {
+            h = HashFamily.mix64(h + userId);
+        }
+        for (int offset : offsets) {
+            h = HashFamily.mix64(h + offset);
+        }
+        for (int k = 0; k < movieIds.length; k++) {
+            h = HashFamily.mix64(h + (((long) movieIds[k] << 32) | Float.floatToIntBits(ratings[k]) & 0xFFFFFFFFL));
+        }
+        return h;
+    }
+
+    public int[] userIds() {
+        return userIds;
+    }
+
+    public int[] offsets() {
+        return offsets;
+    }
+
+    public int[] movieIds() {
+        return movieIds;
+    }
+
+    public float[] ratings() {
+        return ratings;
+    }
+
+    // Load "userId,movieId[,rating,...]" lines (with a header) by memory-mapping the file
+    // and parsing digits in place, without creating a String per line or field.
+    // A missing rating counts as 1.
+    public static UserItemMatrix load(String filename) throws IOException {
+        return load(filename, MAX_SEGMENT);
+    }
+
+    // Maps the file segmentBytes at a time; tests use small segments so lines straddle them
+    static UserItemMatrix load(String filename, long segmentBytes) throws IOException {
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+
+        try (Metrics.Scope phase = Metrics.phase("load");
+             FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            Metrics.bytesRead(fileSize);
+            long position = 0;
+            boolean header = true;
+
+            while (position < fileSize) {
+                long length = Math.min(segmentBytes, fileSize - position);
+                boolean last = position + length == fileSize;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int lineStart = 0;
+                int limit = (int) length;
+                while (lineStart < limit) {
+                    int lineEnd = lineStart;
+                    while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                        lineEnd++;
+                    }
+                    if (lineEnd == limit && !last) {
+                        break; // Line continues in the next segment
+                    }
+                    if (header) {
+                        header = false;
+                    } else {
+                        parseLine(buffer, lineStart, lineEnd, users, movies, ratings, position + lineStart);
+                    }
+                    lineStart = lineEnd + 1;
+                }
+                if (lineStart == 0 && !last) {
+                    throw new IOException("Line longer than " + segmentBytes + " bytes at offset " + position);
+                }
+                position += Math.min(lineStart, limit);
+            }
+            return build(users, movies, ratings);
+        }
+    }
+
+    private static void parseLine(MappedByteBuffer buffer, int from, int to, IntList users,
+                                  IntList movies, FloatList ratings, long fileOffset) throws IOException {
+        while (to > from && (buffer.get(to - 1) == '\r' || buffer.get(to - 1) == ' ')) {
+            to--;
+        }
+        if (to == from) {
+            return; // Blank line
+        }
+
+        int pos = from;
+        long userId = 0;
+        int digits = 0;
+        while (pos < to && buffer.get(pos) != ',') {
+            userId = id(userId * 10 + digit(buffer.get(pos++), fileOffset), fileOffset);
+            digits++;
+        }
+        if (digits == 0 || pos == to) {
+            throw new IOException("Malformed ratings line at offset " + fileOffset);
+        }
+        pos++;
+
+        long movieId = 0;
+        digits = 0;
+        while (pos < to && buffer.get(pos) != ',') {
+            movieId = id(movieId * 10 + digit(buffer.get(pos++), fileOffset), fileOffset);
+            digits++;
+        }
+        if (digits == 0) {
+            throw new IOException("Malformed ratings line at offset " + fileOffset);
+        }
+
+        // Rating as digits with an optional fraction, e.g. "4" or "3.5"
+        float rating = 1;
+        if (pos < to) {
+            pos++;
+            long mantissa = 0;
+            long scale = 1;
+            boolean fraction = false;
+            digits = 0;
+            while (pos < to && buffer.get(pos) != ',') {
+                byte b = buffer.get(pos++);
+                if (b == '.' && !fraction) {
+                    fraction = true;
+                    continue;
+                }
+                mantissa = mantissa * 10 + digit(b, fileOffset);
+                if (fraction) {
+                    scale *= 10;
+                }
+                digits++;
+            }
+            if (digits == 0) {
+                throw new IOException("Malformed rating at offset " + fileOffset);
+            }
+            rating = (float) ((double) mantissa / scale);
+        }
+        users.add((int) userId);
+        movies.add((int) movieId);
+        ratings.add(rating);
+    }
+
+    private static int digit(byte b, long fileOffset) throws IOException {
+        if (b < '0' || b > '9') {
+            throw new IOException("Unexpected character '" + (char) b + "' in ratings line at offset " + fileOffset);
+        }
+        return b - '0';
+    }
+
+    // An id parsed so far, checked after each digit so it cannot wrap around
+    private static long id(long value, long fileOffset) throws IOException {
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Id larger than " + Integer.MAX_VALUE + " in ratings line at offset " + fileOffset);
+        }
+        return value;
+    }
+
+    // Every movie rated 1
+    static UserItemMatrix build(IntList users, IntList movies) throws IOException {
+        return build(users, movies, null);
+    }
+
+    // Map user ids to dense rows (the sorted distinct ids), counting sort by row, then sort
+    // each user's (movie, rating) entries and keep the highest rating of a repeated movie.
+    // The counting arrays follow the number of users, however large or sparse their ids
+    static UserItemMatrix build(IntList users, IntList movies, FloatList ratings) throws IOException {
+        int count = users.size();
+        int[] userIds = users.toArray();
+        Arrays.sort(userIds);
+        int numUsers = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || userIds[i] != userIds[i - 1]) {
+                userIds[numUsers++] = userIds[i];
+            }
+        }
+        userIds = Arrays.copyOf(userIds, numUsers);
+        if (numUsers > 0 && userIds[0] < 0) {
+            throw new IOException("User id " + userIds[0] + " out of range");
+        }
+
+        // Ratings files list a user's lines together, so one lookup usually serves a run of them
+        int[] perRow = new int[numUsers + 1];
+        int row = -1;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || users.get(i) != users.get(i - 1)) {
+                row = Arrays.binarySearch(userIds, users.get(i));
+            }
+            perRow[row + 1]++;
+        }
+        for (int r = 0; r < numUsers; r++) {
+            perRow[r + 1] += perRow[r];
+        }
+
+        // Ratings are non-negative (-0.0 counts as 0.0), so their float bits sort like their values
+        long[] sorted = new long[count];
+        int[] cursor = Arrays.copyOf(perRow, numUsers);
+        for (int i = 0; i < count; i++) {
+            float rating = ratings == null ? 1f : ratings.get(i);
+            if (!(rating >= 0)) {
+                throw new IOException("Rating must be non-negative: " + rating);
+            }
+            if (rating == 0) {
+                rating = 0f; // -0.0 would set the sign bit across the movie half of the key
+            }
+            if (i == 0 || users.get(i) != users.get(i - 1)) {
+                row = Arrays.binarySearch(userIds, users.get(i));
+            }
+            sorted[cursor[row]++] = ((long) movies.get(i) << 32) | (Float.floatToIntBits(rating) & 0xFFFFFFFFL);
+        }
+
+        int[] offsets = new int[numUsers + 1];
+        int[] movieIds = new int[count];
+        float[] sortedRatings = new float[count];
+        int write = 0;
+        for (row = 0; row < numUsers; row++) {
+            int from = perRow[row];
+            int to = perRow[row + 1];
+            Arrays.sort(sorted, from, to);
+            offsets[row] = write;
+            for (int i = from; i < to; i++) {
+                int movie = (int) (sorted[i] >>> 32);
+                if (i > from && movie == movieIds[write - 1]) {
+                    write--; // Same movie again with a rating at least as high
+                }
+                movieIds[write] = movie;
+                sortedRatings[write++] = Float.intBitsToFloat((int) sorted[i]);
+            }
+        }
+        offsets[numUsers] = write;
+        return new UserItemMatrix(userIds, offsets,
+                write == count ? movieIds : Arrays.copyOf(movieIds, write),
+                write == count ? sortedRatings : Arrays.copyOf(sortedRatings, write));
+    }
+
+}
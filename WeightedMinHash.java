@@ -0,0 +1,194 @@
+import java.util.*;
+import java.util.stream.*;
+
+// Weighted MinHash by Improved Consistent Weighted Sampling (Ioffe, 2010): for every
+// hash function, each (item, weight) draws an exponent t and a score a from random
+// variables seeded by (hash, item) only, and the signature keeps (item, t) of the
+// lowest score. Two rows then agree on a hash with probability equal to their
+// weighted Jaccard sum(min(w)) / sum(max(w)), here with the ratings as weights.
+//
+// Per (hash, item) the variables are r, c ~ Gamma(2, 1) and beta ~ Uniform(0, 1):
+//   t = floor(ln w / r + beta),  ln a = ln c - r * (t - beta + 1)
+// They depend on the item but not the weight, so for item ids up to TABLE_ENTRIES / t
+// they are computed once into item-major tables, and a row costs one pass over its
+// ratings with a few multiply-adds and a floor per hash. Larger item ids derive
+// the same values on the fly. Hash i's seed does not depend on t, so the tables are
+// shared by every instance with the same seed, built for the most hashes asked for.
+public class WeightedMinHash {
+    private static final int TABLE_ENTRIES = 1 << 20; // 8 MiB per table
+    private static final Map<Long, Tables> SHARED_TABLES = new HashMap<>();
+    private static final int BLOCK_ROWS = 32;
+    private static final double TWO_POW_32 = 4294967296.0;
+
+    private final int numHashes;
+    private final long seed;
+    private final long[] seeds;
+    private volatile Tables tables = Tables.EMPTY;
+
+    public WeightedMinHash(int numHashes, long seed) {
+        if (numHashes <= 0) {
+            throw new IllegalArgumentException("Number of hashes must be positive: " + numHashes);
+        }
+        this.numHashes = numHashes;
+        this.seed = seed;
+        this.seeds = HashFamily.seeds(numHashes, seed);
+    }
+
+    public int numHashes() {
+        return numHashes;
+    }
+
+    // Signatures of all rows, weighted by their ratings
+    public SignatureMatrix build(UserItemMatrix matrix) {
+        int maxMovie = 0;
+        for (int movie : matrix.movieIds()) {
+            maxMovie = Math.max(maxMovie, movie);
+        }
+        tables = tables(seed, numHashes, maxMovie + 1);
+
+        int n = matrix.numUsers();
+        SignatureMatrix signatures = new SignatureMatrix(n, numHashes);
+        IntStream.range(0, (n + BLOCK_ROWS - 1) / BLOCK_ROWS)
+                .parallel()
+                .forEach(block -> {
+                    Sample sample = new Sample(numHashes);
+                    for (int row = block * BLOCK_ROWS; row < Math.min(n, (block + 1) * BLOCK_ROWS); row++) {
+                        signature(matrix.movieIds(), matrix.ratings(), matrix.start(row), matrix.end(row),
+                                sample, signatures.values(), signatures.offset(row));
+                    }
+                });
+        return signatures;
+    }
+
+    // Signature of items[from, to) with weights[from, to) into out[offset, offset + t)
+    public void signature(int[] items, float[] weights, int from, int to, Sample sample, int[] out, int offset) {
+        double[] best = sample.logA;
+        int[] bestItem = sample.item;
+        int[] bestT = sample.t;
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        Arrays.fill(bestItem, -1);
+        double[] variables = sample.variables;
+        Tables tables = this.tables;
+        int tabled = tables.items;
+        double[] inverseR = tables.inverseR;
+        double[] r = tables.r;
+        double[] beta = tables.beta;
+        double[] logC = tables.logC;
+        for (int m = from; m < to; m++) {
+            if (!(weights[m] > 0)) {
+                continue; // Zero weight: the item is not in the weighted set
+            }
+            int item = items[m];
+            double logW = Math.log(weights[m]);
+            if (item >= 0 && item < tabled) {
+                int base = item * tables.hashes;
+                for (int i = 0; i < numHashes; i++) {
+                    double t = Math.floor(logW * inverseR[base + i] + beta[base + i]);
+                    double logA = logC[base + i] - r[base + i] * (t - beta[base + i] + 1);
+                    if (logA < best[i]) {
+                        best[i] = logA;
+                        bestItem[i] = item;
+                        bestT[i] = (int) t;
+                    }
+                }
+            } else {
+                for (int i = 0; i < numHashes; i++) {
+                    variables(i, item, variables);
+                    double t = Math.floor(logW / variables[0] + variables[1]);
+                    double logA = variables[2] - variables[0] * (t - variables[1] + 1);
+                    if (logA < best[i]) {
+                        best[i] = logA;
+                        bestItem[i] = item;
+                        bestT[i] = (int) t;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < numHashes; i++) {
+            out[offset + i] = bestItem[i] < 0 ? -1
+                    : (int) (HashFamily.mix64(((long) bestItem[i] << 32) ^ (bestT[i] & 0xFFFFFFFFL)) >>> 32);
+        }
+    }
+
+    // Tables of this seed covering numHashes hashes and as many of the items as fit, reused
+    // when an earlier instance built large enough ones
+    private static Tables tables(long seed, int numHashes, int items) {
+        synchronized (SHARED_TABLES) {
+            Tables shared = SHARED_TABLES.getOrDefault(seed, Tables.EMPTY);
+            int fit = Math.min(items, TABLE_ENTRIES / numHashes);
+            if (shared.hashes >= numHashes && shared.items >= fit) {
+                return shared;
+            }
+            int hashes = Math.max(numHashes, shared.hashes);
+            Tables built = new Tables(HashFamily.seeds(hashes, seed), Math.min(Math.max(items, shared.items),
+                    TABLE_ENTRIES / hashes));
+            SHARED_TABLES.put(seed, built);
+            return built;
+        }
+    }
+
+    // r ~ Gamma(2, 1), beta ~ U(0, 1) and ln c with c ~ Gamma(2, 1), seeded by (hash, item)
+    private void variables(int hash, int item, double[] out) {
+        variables(seeds[hash], item, out);
+    }
+
+    private static void variables(long hashSeed, int item, double[] out) {
+        long h1 = HashFamily.mix64(hashSeed + item * 0x9e3779b97f4a7c15L);
+        long h2 = HashFamily.mix64(h1 ^ 0xc2b2ae3d27d4eb4fL);
+        long h3 = HashFamily.mix64(h2 ^ 0xc2b2ae3d27d4eb4fL);
+        out[0] = -Math.log(uniform(h1 >>> 32) * uniform(h1 & 0xFFFFFFFFL));
+        out[1] = (h3 >>> 11) * 0x1.0p-53;
+        out[2] = Math.log(-Math.log(uniform(h2 >>> 32) * uniform(h2 & 0xFFFFFFFFL)));
+    }
+
+    // Open interval (0, 1), so logarithms stay finite
+    private static double uniform(long bits32) {
+        return (bits32 + 0.5) / TWO_POW_32;
+    }
+
+    // r, 1 / r, beta and ln c of items [0, items) for hashes [0, hashes), item-major
+    private static final class Tables {
+        static final Tables EMPTY = new Tables(new long[0], 0);
+
+        final int hashes;
+        final int items;
+        final double[] inverseR;
+        final double[] r;
+        final double[] beta;
+        final double[] logC;
+
+        Tables(long[] seeds, int items) {
+            this.hashes = seeds.length;
+            this.items = items;
+            inverseR = new double[items * hashes];
+            r = new double[items * hashes];
+            beta = new double[items * hashes];
+            logC = new double[items * hashes];
+            double[] variables = new double[3];
+            for (int item = 0; item < items; item++) {
+                for (int i = 0; i < hashes; i++) {
+                    variables(seeds[i], item, variables);
+                    int k = item * hashes + i;
+                    r[k] = variables[0];
+                    inverseR[k] = 1 / variables[0];
+                    beta[k] = variables[1];
+                    logC[k] = variables[2];
+                }
+            }
+        }
+    }
+
+    // Per-thread scratch for one signature
+    public static final class Sample {
+        private final double[] logA;
+        private final int[] item;
+        private final int[] t;
+        private final double[] variables = new double[3];
+
+        public Sample(int numHashes) {
+            this.logA = new double[numHashes];
+            this.item = new int[numHashes];
+            this.t = new int[numHashes];
+        }
+    }
+}
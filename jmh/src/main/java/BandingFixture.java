@@ -0,0 +1,51 @@
+import java.util.*;
+
+// Inputs and operations measured by benchmarks.BandingBenchmark
+public class BandingFixture implements benchmarks.Fixtures.Banding {
+    private int r;
+    private int b;
+    private String mode;
+    private UserItemMatrix matrix;
+    private SignatureMatrix signatures;
+    private long[] candidates;
+    private LSHIndex index;
+    private int[][] queries;
+    private int next;
+
+    @Override
+    public void setUp(int users, int r, int b, String signature) {
+        this.r = r;
+        this.b = b;
+        this.mode = signature;
+        matrix = SyntheticData.movieLens(users, 100, 4);
+        signatures = MovieLensSignatures.generate(matrix, signature, r * b, 42);
+        candidates = BandingEngine.candidatePairs(signatures, b, r);
+        index = LSHIndex.build(matrix, r * b, r, b, 42);
+        queries = new int[64][];
+        Random random = new Random(5);
+        for (int i = 0; i < queries.length; i++) {
+            int row = random.nextInt(matrix.numUsers());
+            queries[i] = Arrays.copyOfRange(matrix.movieIds(), matrix.start(row), matrix.end(row));
+        }
+    }
+
+    @Override
+    public Object buildSignatures() {
+        return MovieLensSignatures.generate(matrix, mode, r * b, 42);
+    }
+
+    @Override
+    public Object candidatePairs() {
+        return BandingEngine.candidatePairs(signatures, b, r);
+    }
+
+    @Override
+    public Object topKNeighbours() {
+        return TopKNeighbours.fromCandidates(signatures, r * b, candidates, 10);
+    }
+
+    @Override
+    public Object indexQuery() {
+        return index.query(queries[next++ & (queries.length - 1)], 0.5, 10);
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.*;
+
+// Inputs and operations measured by benchmarks.ExactJaccardBenchmark
+public class ExactJaccardFixture implements benchmarks.Fixtures.ExactJaccard {
+    private UserItemMatrix matrix;
+    private double threshold;
+    private int[] pairs;
+    private int next;
+
+    @Override
+    public void setUp(int users, double threshold) {
+        this.threshold = threshold;
+        matrix = SyntheticData.movieLens(users, 100, 6);
+        Random random = new Random(7);
+        pairs = new int[2048];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = random.nextInt(matrix.numUsers());
+        }
+    }
+
+    @Override
+    public Object selfJoin() {
+        return ExactSimilarityJoin.selfJoin(matrix, threshold);
+    }
+
+    @Override
+    public double pairJaccard() {
+        int i = next;
+        next = (next + 2) & (pairs.length - 1);
+        return matrix.jaccard(pairs[i], pairs[i + 1]);
+    }
+}
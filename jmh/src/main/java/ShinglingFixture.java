@@ -0,0 +1,52 @@
+import java.util.*;
+
+// Inputs and operations measured by benchmarks.ShinglingBenchmark
+public class ShinglingFixture implements benchmarks.Fixtures.Shingling {
+    private String text;
+    private int k;
+    private Set<String> stringGrams1;
+    private Set<String> stringGrams2;
+    private LongHashSet hashedGrams1;
+    private LongHashSet hashedGrams2;
+
+    @Override
+    public void setUp(int chars, int k) {
+        this.k = k;
+        text = SyntheticData.text(chars, 5000, 1);
+        String similar = SyntheticData.mutate(text, 0.1, 2);
+        stringGrams1 = KGramSimilarity.generateCharacterKGrams(text, k);
+        stringGrams2 = KGramSimilarity.generateCharacterKGrams(similar, k);
+        hashedGrams1 = shingle(text);
+        hashedGrams2 = shingle(similar);
+    }
+
+    @Override
+    public Object stringKGrams() {
+        return KGramSimilarity.generateCharacterKGrams(text, k);
+    }
+
+    @Override
+    public Object streamingKGrams() {
+        return shingle(text);
+    }
+
+    @Override
+    public double stringJaccard() {
+        return KGramSimilarity.jaccardSimilarity(stringGrams1, stringGrams2);
+    }
+
+    @Override
+    public double hashedJaccard() {
+        return hashedGrams1.jaccard(hashedGrams2);
+    }
+
+    private LongHashSet shingle(String document) {
+        LongHashSet set = new LongHashSet();
+        Shingler shingler = new Shingler().characterKGrams(k, set::add);
+        for (int i = 0; i < document.length(); i++) {
+            shingler.accept(document.charAt(i));
+        }
+        shingler.finish();
+        return set;
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.*;
+import java.util.*;
+
+// Inputs and operations measured by benchmarks.SignatureBenchmark
+public class SignatureFixture implements benchmarks.Fixtures.Signature {
+    private Set<String> kgrams;
+    private long[] keys;
+    private HashFamily murmur;
+    private HashFamily derived;
+    private OnePermutationHashing oph;
+    private UserItemMatrix matrix;
+    private SignatureBuilder builder;
+    private long[] scratch;
+    private int[] row;
+
+    @Override
+    public void setUp(int size, int t) {
+        kgrams = new HashSet<>();
+        String text = SyntheticData.text(size * 64, 50000, 3);
+        for (int i = 0; kgrams.size() < size && i + 5 <= text.length(); i++) {
+            kgrams.add(text.substring(i, i + 5));
+        }
+        keys = kgrams.stream().mapToLong(HashFamily::hashChars).toArray();
+        murmur = HashFamily.murmur(t, 42);
+        derived = HashFamily.derived(t, 42);
+        oph = new OnePermutationHashing(t, 42);
+
+        // A single user rating min(size, NUM_MOVIES) movies
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        for (int m = 0; m < Math.min(size, SyntheticData.NUM_MOVIES); m++) {
+            users.add(1);
+            movies.add(m + 1);
+        }
+        try {
+            matrix = UserItemMatrix.build(users, movies);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        builder = new SignatureBuilder(t, 42);
+        scratch = new long[t];
+        row = new int[t];
+    }
+
+    @Override
+    public Object murmurKHash() {
+        return MinHashing.minHashSignature(kgrams, murmur);
+    }
+
+    @Override
+    public Object derivedKHash() {
+        return MinHashing.minHashSignature(kgrams, derived);
+    }
+
+    @Override
+    public Object onePermutation() {
+        return MinHashing.onePermutationSignature(kgrams, oph);
+    }
+
+    @Override
+    public Object sketchHashedKeys() {
+        MinHashSketch sketch = MinHashSketch.kHash(murmur);
+        for (long key : keys) {
+            sketch.accept(key);
+        }
+        return sketch.signature();
+    }
+
+    @Override
+    public Object universalMovieLens() {
+        builder.signature(matrix.movieIds(), matrix.start(0), matrix.end(0), scratch, row, 0);
+        return row;
+    }
+}
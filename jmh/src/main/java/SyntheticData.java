@@ -0,0 +1,103 @@
+import java.io.*;
+import java.util.*;
+
+// Locally generated benchmark inputs, so benchmarks need no MovieLens download or
+// D1..D4 files and are reproducible from a seed.
+final class SyntheticData {
+    static final int NUM_MOVIES = 1682; // As in ml-100k
+    private static final String LETTERS = "etaoinshrdlucmfwypvbgkjqxz";
+
+    private SyntheticData() {
+    }
+
+    // MovieLens-shaped ratings: per-user counts are heavy-tailed with a minimum of 20 (as in
+    // ml-100k), movies are drawn from a Zipf-like popularity curve over NUM_MOVIES, and a
+    // tenth of the users are near-copies of an earlier user so there are similar pairs to find.
+    // Ratings are whole stars 1-5
+    static UserItemMatrix movieLens(int numUsers, int meanRatings, long seed) {
+        Random random = new Random(seed);
+        double[] popularity = new double[NUM_MOVIES];
+        double total = 0;
+        for (int m = 0; m < popularity.length; m++) {
+            total += 1.0 / Math.pow(m + 1, 0.8);
+            popularity[m] = total;
+        }
+
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        List<int[]> ratedBy = new ArrayList<>();
+        for (int u = 0; u < numUsers; u++) {
+            int[] rated;
+            if (u > 0 && random.nextInt(10) == 0) {
+                rated = ratedBy.get(random.nextInt(u)).clone();
+                for (int i = 0; i < rated.length; i++) {
+                    if (random.nextInt(10) == 0) {
+                        rated[i] = zipf(popularity, total, random);
+                    }
+                }
+            } else {
+                int count = 20 + (int) (-Math.log(1 - random.nextDouble()) * (meanRatings - 20));
+                rated = new int[Math.min(count, popularity.length)];
+                for (int i = 0; i < rated.length; i++) {
+                    rated[i] = zipf(popularity, total, random);
+                }
+            }
+            ratedBy.add(rated);
+            for (int movie : rated) {
+                users.add(u + 1);
+                movies.add(movie + 1);
+                ratings.add(1 + random.nextInt(5));
+            }
+        }
+        try {
+            return UserItemMatrix.build(users, movies, ratings);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Text-shaped document: words of 1-10 letters with English-like letter frequencies,
+    // drawn from a vocabulary with Zipf-like word frequencies
+    static String text(int chars, int vocabulary, long seed) {
+        Random random = new Random(seed);
+        String[] words = new String[vocabulary];
+        double[] frequency = new double[vocabulary];
+        double total = 0;
+        for (int w = 0; w < vocabulary; w++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + random.nextInt(10);
+            for (int i = 0; i < length; i++) {
+                word.append(LETTERS.charAt((int) (Math.pow(random.nextDouble(), 2) * LETTERS.length())));
+            }
+            words[w] = word.toString();
+            total += 1.0 / (w + 1);
+            frequency[w] = total;
+        }
+
+        StringBuilder text = new StringBuilder(chars + 16);
+        while (text.length() < chars) {
+            text.append(words[zipf(frequency, total, random)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        text.setLength(chars);
+        return text.toString();
+    }
+
+    // Copy of a text with about `rate` of its words replaced, for a similar second document
+    static String mutate(String text, double rate, long seed) {
+        Random random = new Random(seed);
+        String[] words = text.split(" ");
+        for (int i = 0; i < words.length; i++) {
+            if (random.nextDouble() < rate) {
+                words[random.nextInt(words.length)] = words[i];
+            }
+        }
+        return String.join(" ", words);
+    }
+
+    // Index drawn with probability proportional to the step of a cumulative weight curve
+    private static int zipf(double[] cumulative, double total, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Parallel signature construction and candidate generation over MovieLens-shaped users
+// (what LSHMovieLens runs per layout), top-10 neighbours of every user from those
+// candidates, plus single-user index queries, for several band layouts "r x b"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BandingBenchmark {
+    @Param({"943", "10000"})
+    int users;
+
+    @Param({"5x10", "5x20", "10x10", "8x20"})
+    String layout;
+
+    @Param({"classic", "oph", "weighted"})
+    String signature;
+
+    private Fixtures.Banding fixture;
+
+    @Setup
+    public void setUp() {
+        String[] parts = layout.split("x");
+        fixture = Fixtures.load(Fixtures.Banding.class, "BandingFixture");
+        fixture.setUp(users, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), signature);
+    }
+
+    @Benchmark
+    public Object buildSignatures() {
+        return fixture.buildSignatures();
+    }
+
+    @Benchmark
+    public Object candidatePairs() {
+        return fixture.candidatePairs();
+    }
+
+    @Benchmark
+    public Object topKNeighbours() {
+        return fixture.topKNeighbours();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object indexQuery() {
+        return fixture.indexQuery();
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Exact Jaccard: the prefix-filtered all-pairs join used as the LSH baseline, and
+// single sorted-set intersections of MovieLens-shaped users
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExactJaccardBenchmark {
+    @Param({"943", "5000"})
+    int users;
+
+    @Param({"0.5", "0.8"})
+    double threshold;
+
+    private Fixtures.ExactJaccard fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixtures.load(Fixtures.ExactJaccard.class, "ExactJaccardFixture");
+        fixture.setUp(users, threshold);
+    }
+
+    @Benchmark
+    public Object selfJoin() {
+        return fixture.selfJoin();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double pairJaccard() {
+        return fixture.pairJaccard();
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+// JMH rejects benchmarks in the default package, and named packages cannot refer to
+// the project's default-package classes. Each benchmark therefore drives a fixture
+// class of the same name in the default package through a small interface, loaded
+// once per trial; the interface call is monomorphic and inlined by the JIT.
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static <T> T load(Class<T> type, String fixtureClass) {
+        try {
+            return type.cast(Class.forName(fixtureClass).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load benchmark fixture " + fixtureClass, e);
+        }
+    }
+
+    public interface Shingling {
+        void setUp(int chars, int k);
+
+        Object stringKGrams();
+
+        Object streamingKGrams();
+
+        double stringJaccard();
+
+        double hashedJaccard();
+    }
+
+    public interface Signature {
+        void setUp(int size, int t);
+
+        Object murmurKHash();
+
+        Object derivedKHash();
+
+        Object onePermutation();
+
+        Object sketchHashedKeys();
+
+        Object universalMovieLens();
+    }
+
+    public interface Banding {
+        void setUp(int users, int r, int b, String signature);
+
+        Object buildSignatures();
+
+        Object candidatePairs();
+
+        Object topKNeighbours();
+
+        Object indexQuery();
+    }
+
+    public interface ExactJaccard {
+        void setUp(int users, double threshold);
+
+        Object selfJoin();
+
+        double pairJaccard();
+    }
+}
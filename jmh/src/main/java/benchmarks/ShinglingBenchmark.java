@@ -0,0 +1,48 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Character k-gram extraction and k-gram set Jaccard: the String-set path still used by
+// LSHSimilarity against the streaming Shingler / LongHashSet path used by KGramSimilarity
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShinglingBenchmark {
+    @Param({"10000", "1000000"})
+    int chars;
+
+    @Param({"2", "3", "5"})
+    int k;
+
+    private Fixtures.Shingling fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixtures.load(Fixtures.Shingling.class, "ShinglingFixture");
+        fixture.setUp(chars, k);
+    }
+
+    @Benchmark
+    public Object stringKGrams() {
+        return fixture.stringKGrams();
+    }
+
+    @Benchmark
+    public Object streamingKGrams() {
+        return fixture.streamingKGrams();
+    }
+
+    @Benchmark
+    public double stringJaccard() {
+        return fixture.stringJaccard();
+    }
+
+    @Benchmark
+    public double hashedJaccard() {
+        return fixture.hashedJaccard();
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Signature construction for one set of `size` elements with t hash functions:
+// MinHashing's k-hash families, one-permutation hashing, the streaming sketch and the
+// 2^61 - 1 universal hashes of the MovieLens tools
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+    @Param({"50", "500", "5000"})
+    int size;
+
+    @Param({"20", "150", "600"})
+    int t;
+
+    private Fixtures.Signature fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = Fixtures.load(Fixtures.Signature.class, "SignatureFixture");
+        fixture.setUp(size, t);
+    }
+
+    @Benchmark
+    public Object murmurKHash() {
+        return fixture.murmurKHash();
+    }
+
+    @Benchmark
+    public Object derivedKHash() {
+        return fixture.derivedKHash();
+    }
+
+    @Benchmark
+    public Object onePermutation() {
+        return fixture.onePermutation();
+    }
+
+    @Benchmark
+    public Object sketchHashedKeys() {
+        return fixture.sketchHashedKeys();
+    }
+
+    @Benchmark
+    public Object universalMovieLens() {
+        return fixture.universalMovieLens();
+    }
+}
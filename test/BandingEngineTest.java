@@ -0,0 +1,29 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class BandingEngineTest {
+    @Test
+    void pairsRowsSharingABand() {
+        SignatureMatrix signatures = new SignatureMatrix(4, 4);
+        signatures.setRow(0, new int[] {1, 2, 3, 4});
+        signatures.setRow(1, new int[] {1, 2, 9, 9});
+        signatures.setRow(2, new int[] {7, 7, 3, 4});
+        signatures.setRow(3, new int[] {8, 8, 8, 8});
+        long[] pairs = BandingEngine.candidatePairs(signatures, 2, 2);
+        assertArrayEquals(new long[] {BandingEngine.pairKey(0, 1), BandingEngine.pairKey(0, 2)}, pairs);
+    }
+
+    @Test
+    void bandTooLargeForOneArrayPointsAtTheBucketCap() {
+        // 66000 identical rows make one bucket of about 2.18 billion pairs, rejected before allocating them
+        SignatureMatrix signatures = new SignatureMatrix(66_000, 2);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> BandingEngine.candidatePairs(signatures, 1, 2));
+        assertTrue(e.getMessage().contains("--max-bucket"), e.getMessage());
+        assertTrue(e.getMessage().contains("66000 rows"), e.getMessage());
+
+        long[] capped = BandingEngine.candidatePairs(signatures, 1, 2, BucketPolicy.sample(10, 1L));
+        assertTrue(capped.length <= 66_000L * 9);
+    }
+}
@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class BucketPolicyTest {
+    private static final int ROWS = 40;
+    private static final int NUM_HASHES = 8;
+    private static final int ALL_PAIRS = ROWS * (ROWS - 1) / 2;
+
+    @Test
+    void noneEmitsEveryPair() {
+        BucketPolicy policy = BucketPolicy.none();
+        assertEquals(ALL_PAIRS, BandingEngine.candidatePairs(oneBucket(), 1, 2, policy).length);
+        assertEquals(0, policy.oversizedBuckets());
+        assertEquals(0, policy.suppressedPairs());
+    }
+
+    @Test
+    void sampleEmitsAtMostCapMinusOnePairsPerRow() {
+        BucketPolicy policy = BucketPolicy.sample(5, 7L);
+        long[] pairs = BandingEngine.candidatePairs(oneBucket(), 1, 2, policy);
+        // Row i of the shuffle pairs with the next min(4, ROWS - 1 - i) rows
+        assertEquals(4 * (ROWS - 4) + 3 + 2 + 1, pairs.length);
+        assertEquals(1, policy.oversizedBuckets());
+        assertEquals(ALL_PAIRS - pairs.length, policy.suppressedPairs());
+        assertArrayEquals(pairs, BandingEngine.candidatePairs(oneBucket(), 1, 2, BucketPolicy.sample(5, 7L)));
+    }
+
+    @Test
+    void splitKeepsOnlyPairsAgreeingAfterTheBand() {
+        SignatureMatrix signatures = oneBucket();
+        BucketPolicy policy = BucketPolicy.split(5, 7L);
+        long[] pairs = BandingEngine.candidatePairs(signatures, 1, 2, policy);
+        assertTrue(pairs.length > 0);
+        for (long pair : pairs) {
+            assertEquals(signatures.get(BandingEngine.left(pair), 2), signatures.get(BandingEngine.right(pair), 2));
+        }
+        assertEquals(1, policy.oversizedBuckets());
+        assertEquals(ALL_PAIRS - pairs.length, policy.suppressedPairs());
+    }
+
+    @Test
+    void verifyEmitsExactlyThePairsReachingTheThreshold() {
+        SignatureMatrix signatures = oneBucket();
+        long[] pairs = BandingEngine.candidatePairs(signatures, 1, 2, BucketPolicy.verify(5, 0.75));
+
+        LongList expected = new LongList();
+        for (int a = 0; a < ROWS; a++) {
+            for (int c = a + 1; c < ROWS; c++) {
+                int matches = 0;
+                for (int h = 0; h < NUM_HASHES; h++) {
+                    if (signatures.get(a, h) == signatures.get(c, h)) {
+                        matches++;
+                    }
+                }
+                if (matches >= 6) {
+                    expected.add(BandingEngine.pairKey(a, c));
+                }
+            }
+        }
+        assertTrue(expected.size() > 0);
+        assertArrayEquals(expected.toArray(), pairs);
+    }
+
+    @Test
+    void rejectsCapsBelowTwo() {
+        assertThrows(IllegalArgumentException.class, () -> BucketPolicy.sample(1, 7L));
+        assertThrows(IllegalArgumentException.class, () -> BucketPolicy.of("bogus", 5, 0.5, 7L));
+    }
+
+    // Every row shares the first two values, so the band over them is one bucket of ROWS rows
+    private static SignatureMatrix oneBucket() {
+        SignatureMatrix signatures = new SignatureMatrix(ROWS, NUM_HASHES);
+        Random random = new Random(1);
+        for (int row = 0; row < ROWS; row++) {
+            int[] signature = new int[NUM_HASHES];
+            for (int h = 2; h < NUM_HASHES; h++) {
+                signature[h] = random.nextInt(3);
+            }
+            signatures.setRow(row, signature);
+        }
+        return signatures;
+    }
+}
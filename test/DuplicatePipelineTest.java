@@ -0,0 +1,45 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DuplicatePipelineTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void reportsNearDuplicates() throws Exception {
+        String text = "the quick brown fox jumps over the lazy dog and keeps running through the field";
+        Files.writeString(dir.resolve("a.txt"), text);
+        Files.writeString(dir.resolve("b.txt"), text + "!");
+        Files.writeString(dir.resolve("c.txt"), "an entirely different document about something else");
+        Files.writeString(dir.resolve("empty.txt"), "");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(bytes, true)) {
+            new DuplicatePipeline(3, 4, 20, 0.7, 42L, 1 << 20, 1 << 20, out).run(dir, 4, 2, 60_000);
+        }
+        String[] lines = bytes.toString().trim().split("\n");
+        assertEquals(1, lines.length, bytes.toString());
+        assertTrue(lines[0].contains("a.txt") && lines[0].contains("b.txt"), lines[0]);
+    }
+
+    @Test
+    void failingBandStageEndsTheRun() throws Exception {
+        // More files than every queue holds together, so stalled stages would block on a full queue
+        for (int i = 0; i < 4000; i++) {
+            Files.writeString(dir.resolve("doc-" + i + ".txt"), "document number " + i);
+        }
+        DuplicatePipeline pipeline = new DuplicatePipeline(3, 4, 20, 0.7, 42L, 1 << 20, 1 << 20,
+                new PrintStream(OutputStream.nullOutputStream()));
+        pipeline.maxDocuments = 5;
+
+        ExecutionException e = assertTimeoutPreemptively(Duration.ofSeconds(60),
+                () -> assertThrows(ExecutionException.class, () -> pipeline.run(dir, 4, 2, 60_000)));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+}
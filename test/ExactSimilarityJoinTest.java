@@ -0,0 +1,55 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+class ExactSimilarityJoinTest {
+    private static final double THRESHOLD = 0.3;
+
+    @Test
+    void joinMatchesBruteForce() throws Exception {
+        UserItemMatrix matrix = randomMatrix();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertMatches(matrix, ExactSimilarityJoin.selfJoin(matrix, THRESHOLD, pool), false);
+            assertMatches(matrix, ExactSimilarityJoin.weightedSelfJoin(matrix, THRESHOLD, pool), true);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertMatches(UserItemMatrix matrix, ExactSimilarityJoin.Result result, boolean weighted) {
+        int i = 0;
+        for (int a = 0; a < matrix.numUsers(); a++) {
+            for (int b = a + 1; b < matrix.numUsers(); b++) {
+                double similarity = weighted ? matrix.weightedJaccard(a, b) : matrix.jaccard(a, b);
+                if (similarity >= THRESHOLD - 1e-9) {
+                    assertTrue(i < result.size(), "missing pair " + a + ", " + b);
+                    assertEquals(a, result.left(i));
+                    assertEquals(b, result.right(i));
+                    assertEquals(similarity, result.similarity(i), 1e-6);
+                    i++;
+                }
+            }
+        }
+        assertEquals(i, result.size());
+        assertTrue(i > 0);
+    }
+
+    // Small users over a few movies, so plenty of pairs pass the threshold
+    private static UserItemMatrix randomMatrix() throws Exception {
+        Random random = new Random(3);
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        for (int user = 0; user < 500; user++) {
+            for (int m = 1 + random.nextInt(12); m > 0; m--) {
+                users.add(user);
+                movies.add(random.nextInt(40));
+                ratings.add(1 + random.nextInt(5));
+            }
+        }
+        return UserItemMatrix.build(users, movies, ratings);
+    }
+}
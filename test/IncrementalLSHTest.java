@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+class IncrementalLSHTest {
+    private static final int NUM_HASHES = 60;
+    private static final int R = 3;
+    private static final int B = 20;
+    private static final long SEED = 42L;
+    private static final int USERS = 400;
+    private static final int MOVIES = 300;
+    private static final int THREADS = 4;
+
+    @Test
+    void concurrentEventsMatchAFreshBuild() throws Exception {
+        IncrementalLSH index = new IncrementalLSH(NUM_HASHES, R, B, SEED, 20, 1000);
+        List<Set<Integer>> ratings = new ArrayList<>();
+        for (int user = 0; user < USERS; user++) {
+            ratings.add(new HashSet<>());
+        }
+
+        // Each thread owns the users congruent to it, so the expected ratings need no
+        // locking, while the users still share lock stripes and band buckets
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int first = thread;
+                writers.add(pool.submit(() -> {
+                    Random random = new Random(SEED + first);
+                    for (int event = 0; event < 20_000; event++) {
+                        int user = first + THREADS * random.nextInt(USERS / THREADS);
+                        Set<Integer> rated = ratings.get(user);
+                        int movie = random.nextInt(MOVIES);
+                        // Mostly adds early on, mostly removals later, so users also empty out
+                        if (random.nextInt(20_000) > event) {
+                            index.add(user, movie);
+                            rated.add(movie);
+                        } else {
+                            assertEquals(rated.remove(movie), index.remove(user, movie));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        index.rebuildStale();
+        assertEquals(0, index.staleUsers());
+
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        for (int user = 0; user < USERS; user++) {
+            for (int movie : ratings.get(user)) {
+                users.add(user);
+                movies.add(movie);
+            }
+        }
+        UserItemMatrix matrix = UserItemMatrix.build(users, movies);
+        SignatureMatrix signatures = new SignatureBuilder(NUM_HASHES, SEED).build(matrix);
+        IncrementalLSH fresh = IncrementalLSH.build(matrix, NUM_HASHES, R, B, SEED, 20, 1000);
+
+        assertEquals(matrix.numUsers(), index.size());
+        for (int row = 0; row < matrix.numUsers(); row++) {
+            int user = matrix.userId(row);
+            assertArrayEquals(signatures.row(row), index.signature(user), "signature of user " + user);
+            assertEquals(neighbours(fresh, user), neighbours(index, user), "neighbours of user " + user);
+        }
+        for (int user = 0; user < USERS; user++) {
+            if (ratings.get(user).isEmpty()) {
+                assertNull(index.signature(user), "user " + user + " has no ratings left");
+            }
+        }
+    }
+
+    @Test
+    void bucketsStayBoundedUnderChurn() {
+        IncrementalLSH index = new IncrementalLSH(NUM_HASHES, R, B, SEED, 0, 0);
+        for (int user = 0; user < 50; user++) {
+            index.add(user, user);
+        }
+        long settled = index.bucketCapacity();
+        // Every round moves each user to new band keys and back again
+        for (int round = 0; round < 500; round++) {
+            for (int user = 0; user < 50; user++) {
+                index.add(user, MOVIES + round);
+                index.remove(user, MOVIES + round);
+            }
+        }
+        index.rebuildStale();
+        assertEquals(50, index.size());
+        assertTrue(index.bucketCapacity() <= 2 * settled,
+                "capacity grew from " + settled + " to " + index.bucketCapacity());
+    }
+
+    private static Set<Integer> neighbours(IncrementalLSH index, int user) {
+        Set<Integer> result = new HashSet<>();
+        for (LSHIndex.Match match : index.query(user, 0, Integer.MAX_VALUE)) {
+            result.add(match.userId());
+        }
+        return result;
+    }
+}
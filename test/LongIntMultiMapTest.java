@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class LongIntMultiMapTest {
+    private static final int KEYS = 1000;
+
+    @Test
+    void addAndRemoveValuesUnderKey() {
+        LongIntMultiMap map = new LongIntMultiMap();
+        map.add(7, 1);
+        map.add(7, 2);
+        map.add(7, 3);
+        map.add(8, 4);
+        assertEquals(3, map.size(7));
+        assertEquals(2, map.keyCount());
+
+        assertTrue(map.remove(7, 2));
+        assertFalse(map.remove(7, 2));
+        assertFalse(map.remove(9, 1));
+        assertEquals(Set.of(1, 3), values(map, 7));
+
+        assertTrue(map.remove(8, 4));
+        assertEquals(0, map.size(8));
+        assertEquals(0, map.bucket(8).length);
+        assertEquals(1, map.keyCount());
+    }
+
+    @Test
+    void valuesSurviveGrowth() {
+        LongIntMultiMap map = new LongIntMultiMap(4);
+        for (int key = 0; key < 10 * KEYS; key++) {
+            map.add(key, key);
+            map.add(key, ~key);
+        }
+        for (int key = 0; key < 10 * KEYS; key++) {
+            assertEquals(Set.of(key, ~key), values(map, key));
+        }
+    }
+
+    @Test
+    void capacityStaysBoundedWhenTheSameKeysChurn() {
+        LongIntMultiMap map = new LongIntMultiMap();
+        for (int round = 0; round < 200; round++) {
+            for (int key = 0; key < KEYS; key++) {
+                map.add(key, round);
+            }
+            for (int key = 0; key < KEYS; key++) {
+                assertTrue(map.remove(key, round));
+            }
+        }
+        assertEquals(0, map.keyCount());
+        assertTrue(map.capacity() <= 4 * KEYS, "capacity " + map.capacity());
+    }
+
+    @Test
+    void capacityStaysBoundedWhenKeysNeverRepeat() {
+        LongIntMultiMap map = new LongIntMultiMap();
+        Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            long[] keys = new long[KEYS];
+            for (int i = 0; i < KEYS; i++) {
+                keys[i] = random.nextLong();
+                map.add(keys[i], i);
+            }
+            assertEquals(KEYS, map.keyCount());
+            for (int i = 0; i < KEYS; i++) {
+                assertTrue(map.remove(keys[i], i));
+            }
+        }
+        assertEquals(0, map.keyCount());
+        assertTrue(map.capacity() <= 4 * KEYS, "capacity " + map.capacity());
+    }
+
+    private static Set<Integer> values(LongIntMultiMap map, long key) {
+        Set<Integer> values = new HashSet<>();
+        int[] bucket = map.bucket(key);
+        for (int i = 0; i < map.size(key); i++) {
+            values.add(bucket[i]);
+        }
+        return values;
+    }
+}
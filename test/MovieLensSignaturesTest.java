@@ -0,0 +1,47 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MovieLensSignaturesTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void cachedSignaturesAreRewrittenWhenRatingsChange() throws Exception {
+        Path path = dir.resolve("signatures.lsh");
+        UserItemMatrix before = matrix(30);
+        try (SignatureFile file = MovieLensSignatures.openOrWrite(path, before, "classic", 8, 2, 4, 42L)) {
+            assertEquals(before.checksum(), file.contentChecksum());
+        }
+
+        // Same users, same row count and same seed: only the rated movies differ
+        UserItemMatrix after = matrix(31);
+        assertNotEquals(before.checksum(), after.checksum());
+        try (SignatureFile file = MovieLensSignatures.openOrWrite(path, after, "classic", 8, 2, 4, 42L)) {
+            assertEquals(after.checksum(), file.contentChecksum());
+            SignatureMatrix expected = MovieLensSignatures.generate(after, "classic", 8, 42L);
+            for (int row = 0; row < after.numUsers(); row++) {
+                assertArrayEquals(expected.row(row), file.signature(row));
+            }
+        }
+    }
+
+    private static UserItemMatrix matrix(int lastMovie) throws Exception {
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        for (int user = 1; user <= 3; user++) {
+            for (int movie = user; movie < 10; movie++) {
+                users.add(user);
+                movies.add(movie);
+                ratings.add(3);
+            }
+        }
+        users.add(3);
+        movies.add(lastMovie);
+        ratings.add(3);
+        return UserItemMatrix.build(users, movies, ratings);
+    }
+}
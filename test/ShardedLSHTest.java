@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShardedLSHTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void staleShardSignaturesInAReusedDirectoryAreRewritten() throws Exception {
+        ShardedLSH job = new ShardedLSH(dir, "classic", 8, 2, 4, 42L, 1, List.of());
+        Path ratings = dir.resolve("shard-0.csv");
+
+        // Two users sharing every movie, then the same users with disjoint movies
+        Files.writeString(ratings, "row,movieId,rating\n0,1,3\n0,2,3\n0,3,3\n1,1,3\n1,2,3\n1,3,3\n");
+        assertArrayEquals(new long[] {BandingEngine.pairKey(0, 1)}, mapReduce(job));
+
+        Files.writeString(ratings, "row,movieId,rating\n0,1,3\n0,2,3\n0,3,3\n1,4,3\n1,5,3\n1,6,3\n");
+        UserItemMatrix matrix = UserItemMatrix.load(ratings.toString());
+        SignatureMatrix signatures = MovieLensSignatures.generate(matrix, "classic", 8, 42L);
+        assertArrayEquals(BandingEngine.candidatePairs(signatures, 4, 2), mapReduce(job));
+    }
+
+    private long[] mapReduce(ShardedLSH job) throws IOException {
+        job.map(0);
+        job.reduce(0);
+        Path file = dir.resolve("pairs-0.bin");
+        long[] pairs = new long[(int) (Files.size(file) / Long.BYTES)];
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            for (int i = 0; i < pairs.length; i++) {
+                pairs[i] = in.readLong();
+            }
+        }
+        return pairs;
+    }
+}
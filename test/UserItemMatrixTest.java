@@ -0,0 +1,113 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UserItemMatrixTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void rowsFollowSortedDistinctUserIds() throws Exception {
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        // Ids far apart, interleaved, with a repeated movie keeping its highest rating
+        int[][] lines = {{Integer.MAX_VALUE - 1, 30}, {7, 20}, {Integer.MAX_VALUE - 1, 10}, {7, 20}, {1 << 29, 5}};
+        float[] given = {4, 2, 5, 3.5f, 1};
+        for (int i = 0; i < lines.length; i++) {
+            users.add(lines[i][0]);
+            movies.add(lines[i][1]);
+            ratings.add(given[i]);
+        }
+
+        UserItemMatrix matrix = UserItemMatrix.build(users, movies, ratings);
+        assertArrayEquals(new int[] {7, 1 << 29, Integer.MAX_VALUE - 1}, matrix.userIds());
+        assertArrayEquals(new int[] {0, 1, 2, 4}, matrix.offsets());
+        assertArrayEquals(new int[] {20, 5, 10, 30}, matrix.movieIds());
+        assertArrayEquals(new float[] {3.5f, 1, 5, 4}, matrix.ratings());
+    }
+
+    @Test
+    void rejectsNegativeRatings() {
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        users.add(1);
+        movies.add(1);
+        ratings.add(-1);
+        assertThrows(IOException.class, () -> UserItemMatrix.build(users, movies, ratings));
+    }
+
+    @Test
+    void negativeZeroRatingIsZero() throws Exception {
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        float[] given = {-0f, 2, 0};
+        for (int i = 0; i < given.length; i++) {
+            users.add(1);
+            movies.add(5 + i);
+            ratings.add(given[i]);
+        }
+        UserItemMatrix matrix = UserItemMatrix.build(users, movies, ratings);
+        assertArrayEquals(new int[] {5, 6, 7}, matrix.movieIds());
+        assertEquals(Float.floatToIntBits(0f), Float.floatToIntBits(matrix.ratings()[0]));
+    }
+
+    @Test
+    void loadParsesRatingsFile() throws Exception {
+        // Header, CRLF endings, trailing spaces, blank lines, a missing rating (1) and fractions
+        Path ratings = write("userId,movieId,rating,timestamp\r\n"
+                + "1,10,4,881250949\r\n"
+                + "1,20,3.5 \r\n"
+                + "\r\n"
+                + "2,10\n"
+                + "   \n"
+                + "2,30,0.25,1\n"
+                + "3,40,5");
+        UserItemMatrix matrix = UserItemMatrix.load(ratings.toString());
+        assertArrayEquals(new int[] {1, 2, 3}, matrix.userIds());
+        assertArrayEquals(new int[] {0, 2, 4, 5}, matrix.offsets());
+        assertArrayEquals(new int[] {10, 20, 10, 30, 40}, matrix.movieIds());
+        assertArrayEquals(new float[] {4, 3.5f, 1, 0.25f, 5}, matrix.ratings());
+
+        // Segments smaller than a line, so nearly every line spans a segment boundary
+        for (long segment : new long[] {40, 41, 47, 64}) {
+            UserItemMatrix segmented = UserItemMatrix.load(ratings.toString(), segment);
+            assertArrayEquals(matrix.offsets(), segmented.offsets(), "segment " + segment);
+            assertArrayEquals(matrix.movieIds(), segmented.movieIds(), "segment " + segment);
+            assertArrayEquals(matrix.ratings(), segmented.ratings(), "segment " + segment);
+        }
+    }
+
+    @Test
+    void loadRejectsMalformedLines() throws Exception {
+        String header = "userId,movieId,rating\n";
+        for (String line : new String[] {"1", ",5,3", "1,,3", "1,x,3", "1,5,", "1,5,3a", "1,5,.", "-1,5,3"}) {
+            Path ratings = write(header + "7,7,1\n" + line + "\n");
+            IOException e = assertThrows(IOException.class, () -> UserItemMatrix.load(ratings.toString()), line);
+            assertTrue(e.getMessage().endsWith("offset " + (header.length() + 6)), line + ": " + e.getMessage());
+        }
+        Path longLine = write(header + "1,5,3333333333333333\n");
+        assertThrows(IOException.class, () -> UserItemMatrix.load(longLine.toString(), 16));
+    }
+
+    @Test
+    void rejectsIdsBeyondIntRange() throws Exception {
+        Path largest = write("userId,movieId\n2147483647,2147483647\n");
+        assertArrayEquals(new int[] {Integer.MAX_VALUE}, UserItemMatrix.load(largest.toString()).userIds());
+
+        Path user = write("userId,movieId\n1,1\n2147483648,1\n");
+        IOException e = assertThrows(IOException.class, () -> UserItemMatrix.load(user.toString()));
+        assertTrue(e.getMessage().endsWith("offset 19"), e.getMessage());
+        Path movie = write("userId,movieId\n1,99999999999\n");
+        assertThrows(IOException.class, () -> UserItemMatrix.load(movie.toString()));
+    }
+
+    private Path write(String text) throws IOException {
+        return Files.writeString(Files.createTempFile(dir, "ratings", ".csv"), text);
+    }
+}
@@ -0,0 +1,34 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+class WeightedMinHashTest {
+    @Test
+    void sharedTablesGiveTheSameSignaturesForAnyHashCount() throws Exception {
+        UserItemMatrix matrix = randomMatrix();
+        long seed = 0x5eedL;
+        SignatureMatrix eight = new WeightedMinHash(8, seed).build(matrix);
+        SignatureMatrix sixteen = new WeightedMinHash(16, seed).build(matrix); // Rebuilds the tables for 16 hashes
+        SignatureMatrix eightAgain = new WeightedMinHash(8, seed).build(matrix); // Reads them with a stride of 16
+        for (int row = 0; row < matrix.numUsers(); row++) {
+            assertArrayEquals(eight.row(row), Arrays.copyOf(sixteen.row(row), 8));
+            assertArrayEquals(eight.row(row), eightAgain.row(row));
+        }
+    }
+
+    private static UserItemMatrix randomMatrix() throws Exception {
+        Random random = new Random(5);
+        IntList users = new IntList();
+        IntList movies = new IntList();
+        FloatList ratings = new FloatList();
+        for (int user = 0; user < 200; user++) {
+            for (int m = 1 + random.nextInt(20); m > 0; m--) {
+                users.add(user);
+                movies.add(random.nextInt(500));
+                ratings.add(0.5f * (1 + random.nextInt(10)));
+            }
+        }
+        return UserItemMatrix.build(users, movies, ratings);
+    }
+}